@@ -0,0 +1,355 @@
+import java.util.*;
+import java.util.concurrent.*;
+import tester.*;
+
+// generates solved and scrambled boards in packed form without building a
+// game, going through the same steps as a game does: every possible edge
+// between tiles gets a random weight, Kruskal's Algorithm picks the minimum
+// spanning tree, its edges become the tiles' connections, and every tile
+// gets a random number of rotations
+// NOTE: each board is generated from its own SplittableRandom, seeded from
+// its position in a batch, so a batch comes out the same however many
+// threads generate it
+class BoardGenerator {
+  // the increment between seeds of consecutive boards (the same odd constant
+  // SplittableRandom uses between the seeds of its own streams)
+  static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  // the fewest boards a task generates before it stops splitting in two
+  static final int BATCH = 16;
+  int width;
+  int height;
+  // reusable buffers, sized for one board: every possible edge, as the index
+  // of the tile on its top or left end times 2, plus 1 if it runs downwards;
+  // the weight of each (all below Edge.MAX_WEIGHT, so a short is enough),
+  // the edges in order of weight, the count of each weight while sorting, the
+  // disjoint-set forest of tiles, and the positions (in edges) of the edges
+  // of the last tree connected, in the order they joined it
+  int[] edges;
+  short[] weights;
+  int[] order;
+  int[] counts;
+  int[] parents;
+  int[] ranks;
+  int[] tree;
+
+  BoardGenerator(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive values.");
+    }
+    this.width = width;
+    this.height = height;
+    int size = new PackedBoard(width, height).tiles.length;
+    this.edges = new int[(width - 1) * height + width * (height - 1)];
+    int next = 0;
+    for (int i = 0; i < size; i += 1) {
+      if (i % width < width - 1) {
+        this.edges[next] = i * 2;
+        next += 1;
+      }
+      if (i < size - width) {
+        this.edges[next] = i * 2 + 1;
+        next += 1;
+      }
+    }
+    this.weights = new short[this.edges.length];
+    this.order = new int[this.edges.length];
+    this.counts = new int[Edge.MAX_WEIGHT + 1];
+    this.parents = new int[size];
+    this.ranks = new int[size];
+    this.tree = new int[size - 1];
+  }
+
+  // returns the seed of the board at the given position in a batch generated
+  // from the given seed
+  static long seedFor(long batchSeed, int index) {
+    return mix64(batchSeed + (index + 1) * GOLDEN_GAMMA);
+  }
+
+  // returns the given bits thoroughly scrambled (the finalizer SplittableRandom
+  // uses), so that nearby inputs give unrelated outputs
+  static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // returns the board generated from the given seed, with the power station
+  // in the top left corner
+  GeneratedLevel generate(long seed) {
+    SplittableRandom rand = new SplittableRandom(seed);
+    PackedBoard solved = new PackedBoard(this.width, this.height);
+    for (int i = 0; i < this.weights.length; i += 1) {
+      this.weights[i] = (short) rand.nextInt(Edge.MAX_WEIGHT);
+    }
+    this.sortEdges();
+    this.connectTree(solved);
+    solved.setStation(0, true);
+    byte[] rotations = new byte[solved.tiles.length];
+    for (int i = 0; i < rotations.length; i += 1) {
+      rotations[i] = (byte) rand.nextInt(4);
+    }
+    return new GeneratedLevel(seed, solved, rotations);
+  }
+
+  // returns as many boards as asked for, generated in parallel on the given
+  // pool from the given seed
+  GeneratedLevel[] generateAll(long batchSeed, int count, ForkJoinPool pool) {
+    return this.generateRange(batchSeed, 0, count, pool);
+  }
+
+  // returns the boards at positions lo (inclusive) to hi (exclusive) of a
+  // batch generated from the given seed, generated in parallel on the given
+  // pool, so a big batch can be generated a part at a time
+  GeneratedLevel[] generateRange(long batchSeed, int lo, int hi, ForkJoinPool pool) {
+    GeneratedLevel[] levels = new GeneratedLevel[hi - lo];
+    pool.invoke(new GenerateTask(this.width, this.height, batchSeed, levels, lo, lo, hi));
+    return levels;
+  }
+
+  // EFFECT: orders the edges by weight using a (stable) counting sort
+  void sortEdges() {
+    Arrays.fill(this.counts, 0);
+    for (int i = 0; i < this.weights.length; i += 1) {
+      this.counts[this.weights[i] + 1] += 1;
+    }
+    for (int w = 1; w < this.counts.length; w += 1) {
+      this.counts[w] += this.counts[w - 1];
+    }
+    for (int i = 0; i < this.weights.length; i += 1) {
+      this.order[this.counts[this.weights[i]]] = i;
+      this.counts[this.weights[i]] += 1;
+    }
+  }
+
+  // EFFECT: connects the tiles of the given board along the minimum spanning
+  // tree of the sorted edges, using Kruskal's Algorithm, and records the
+  // tree's edges
+  void connectTree(PackedBoard board) {
+    for (int i = 0; i < this.parents.length; i += 1) {
+      this.parents[i] = i;
+      this.ranks[i] = 0;
+    }
+    int needed = this.parents.length - 1;
+    for (int i = 0; i < this.order.length && needed > 0; i += 1) {
+      int edge = this.edges[this.order[i]];
+      int from = edge / 2;
+      boolean down = edge % 2 == 1;
+      int to = down ? from + this.width : from + 1;
+      if (this.union(from, to)) {
+        this.tree[this.tree.length - needed] = this.order[i];
+        if (down) {
+          board.setConnections(from, board.connections(from) | PackedBoard.BOTTOM);
+          board.setConnections(to, board.connections(to) | PackedBoard.TOP);
+        }
+        else {
+          board.setConnections(from, board.connections(from) | PackedBoard.RIGHT);
+          board.setConnections(to, board.connections(to) | PackedBoard.LEFT);
+        }
+        needed -= 1;
+      }
+    }
+  }
+
+  // finds the representative of the given tile in the disjoint-set forest
+  // EFFECT: halves the path walked, so later searches are shorter
+  int findRep(int index) {
+    while (this.parents[index] != index) {
+      this.parents[index] = this.parents[this.parents[index]];
+      index = this.parents[index];
+    }
+    return index;
+  }
+
+  // EFFECT: merges the sets containing the two given tiles, hanging the
+  // shallower tree under the deeper one
+  // returns whether the tiles were in different sets before the merge
+  boolean union(int a, int b) {
+    int repA = this.findRep(a);
+    int repB = this.findRep(b);
+    if (repA == repB) {
+      return false;
+    }
+    if (this.ranks[repA] < this.ranks[repB]) {
+      this.parents[repA] = repB;
+    }
+    else if (this.ranks[repA] > this.ranks[repB]) {
+      this.parents[repB] = repA;
+    }
+    else {
+      this.parents[repB] = repA;
+      this.ranks[repA] += 1;
+    }
+    return true;
+  }
+}
+
+// represents generating part of a batch of boards, splitting it in two until
+// each part is small enough to generate with a generator of its own, into an
+// array whose first element is the board at position first of the batch
+class GenerateTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  int width;
+  int height;
+  long batchSeed;
+  GeneratedLevel[] levels;
+  int first;
+  int lo;
+  int hi;
+
+  GenerateTask(int width, int height, long batchSeed, GeneratedLevel[] levels, int first,
+      int lo, int hi) {
+    this.width = width;
+    this.height = height;
+    this.batchSeed = batchSeed;
+    this.levels = levels;
+    this.first = first;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // EFFECT: generates the boards at positions lo (inclusive) to hi (exclusive)
+  // of the batch
+  protected void compute() {
+    if (this.hi - this.lo <= BoardGenerator.BATCH) {
+      BoardGenerator generator = new BoardGenerator(this.width, this.height);
+      for (int i = this.lo; i < this.hi; i += 1) {
+        this.levels[i - this.first] = generator.generate(
+            BoardGenerator.seedFor(this.batchSeed, i));
+      }
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new GenerateTask(this.width, this.height, this.batchSeed, this.levels,
+          this.first, this.lo, mid),
+          new GenerateTask(this.width, this.height, this.batchSeed, this.levels, this.first, mid,
+              this.hi));
+    }
+  }
+}
+
+class ExamplesBoardGenerator {
+  BoardGenerator gen;
+
+  void init() {
+    this.gen = new BoardGenerator(3, 2);
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "BoardGenerator", 4, 0);
+    // two rows of two right-going edges, and three downward edges between them:
+    t.checkExpect(this.gen.edges, new int[] { 0, 1, 2, 3, 5, 6, 8 });
+    t.checkExpect(this.gen.weights.length, 7);
+    t.checkExpect(this.gen.counts.length, Edge.MAX_WEIGHT + 1);
+    t.checkExpect(this.gen.tree.length, 5);
+    t.checkExpect(new BoardGenerator(1, 1).edges.length, 0);
+  }
+
+  void testSeedFor(Tester t) {
+    t.checkExpect(BoardGenerator.seedFor(7, 3), BoardGenerator.seedFor(7, 3));
+    t.checkExpect(BoardGenerator.seedFor(7, 3) == BoardGenerator.seedFor(7, 4), false);
+    t.checkExpect(BoardGenerator.seedFor(7, 3) == BoardGenerator.seedFor(8, 3), false);
+    t.checkExpect(BoardGenerator.seedFor(0, 0),
+        BoardGenerator.mix64(BoardGenerator.GOLDEN_GAMMA));
+  }
+
+  void testMix64(Tester t) {
+    t.checkExpect(BoardGenerator.mix64(0), 0L);
+    // matches the first value of a SplittableRandom seeded with 0:
+    t.checkExpect(BoardGenerator.mix64(BoardGenerator.GOLDEN_GAMMA),
+        new SplittableRandom(0).nextLong());
+  }
+
+  void testSortEdges(Tester t) {
+    this.init();
+    this.gen.weights = new short[] { 5, 0, 999, 5, 2, 0, 7 };
+    // CHANGE
+    this.gen.sortEdges();
+    // AFTER
+    t.checkExpect(this.gen.order, new int[] { 1, 5, 4, 0, 3, 6, 2 });
+  }
+
+  void testConnectTree(Tester t) {
+    this.init();
+    PackedBoard board = new PackedBoard(3, 2);
+    this.gen.order = new int[] { 1, 5, 4, 0, 3, 6, 2 };
+    // CHANGE
+    this.gen.connectTree(board);
+    // AFTER
+    // 0 down, 3 right, 2 down and 0 right join four tiles, 1 down would make a
+    // cycle, and 4 right completes the tree before 1 right and 1 down are reached:
+    t.checkExpect(board.tiles, new byte[] { 12, 1, 8, 6, 5, 3 });
+    t.checkExpect(this.gen.tree, new int[] { 1, 5, 4, 0, 6 });
+    t.checkExpect(board.isSpanningTree(), true);
+  }
+
+  void testFindRepAndUnion(Tester t) {
+    this.init();
+    this.gen.parents = new int[] { 0, 1, 2, 3, 4, 5 };
+    this.gen.ranks = new int[6];
+    // CHANGE
+    t.checkExpect(this.gen.union(0, 1), true);
+    t.checkExpect(this.gen.union(2, 1), true);
+    t.checkExpect(this.gen.union(0, 2), false);
+    t.checkExpect(this.gen.union(3, 2), true);
+    // AFTER
+    t.checkExpect(this.gen.parents, new int[] { 0, 0, 0, 0, 4, 5 });
+    t.checkExpect(this.gen.ranks, new int[] { 1, 0, 0, 0, 0, 0 });
+    t.checkExpect(this.gen.findRep(3), 0);
+    t.checkExpect(this.gen.findRep(4), 4);
+  }
+
+  void testGenerate(Tester t) {
+    BoardGenerator big = new BoardGenerator(20, 15);
+    GeneratedLevel level = big.generate(11);
+    t.checkExpect(level.seed, 11L);
+    t.checkExpect(level.solved.width, 20);
+    t.checkExpect(level.solved.height, 15);
+    t.checkExpect(level.solved.isSpanningTree(), true);
+    t.checkExpect(level.solved.hasStation(0), true);
+    t.checkExpect(level.solved.hasStation(1), false);
+    t.checkExpect(level.rotations.length, 300);
+    boolean inRange = true;
+    for (int i = 0; i < level.rotations.length; i += 1) {
+      inRange = inRange && level.rotations[i] >= 0 && level.rotations[i] < 4;
+    }
+    t.checkExpect(inRange, true);
+    // the same seed gives the same board, even from a used generator:
+    t.checkExpect(big.generate(11), level);
+    t.checkExpect(new BoardGenerator(20, 15).generate(11), level);
+    t.checkExpect(Arrays.equals(big.generate(12).solved.tiles, level.solved.tiles), false);
+    t.checkExpect(new BoardGenerator(1, 1).generate(5).solved.isSpanningTree(), true);
+  }
+
+  void testGenerateAll(Tester t) {
+    BoardGenerator big = new BoardGenerator(12, 9);
+    ForkJoinPool one = new ForkJoinPool(1);
+    ForkJoinPool four = new ForkJoinPool(4);
+    GeneratedLevel[] levels = big.generateAll(99, 50, four);
+    t.checkExpect(levels.length, 50);
+    t.checkExpect(levels[37], big.generate(BoardGenerator.seedFor(99, 37)));
+    t.checkExpect(levels[49].solved.isSpanningTree(), true);
+    // the same batch whatever the number of threads:
+    t.checkExpect(big.generateAll(99, 50, one), levels);
+    GeneratedLevel other = big.generateAll(98, 50, four)[0];
+    t.checkExpect(Arrays.equals(other.solved.tiles, levels[0].solved.tiles)
+        && Arrays.equals(other.rotations, levels[0].rotations), false);
+    one.shutdown();
+    four.shutdown();
+  }
+
+  void testGenerateRange(Tester t) {
+    BoardGenerator big = new BoardGenerator(12, 9);
+    ForkJoinPool four = new ForkJoinPool(4);
+    GeneratedLevel[] all = big.generateAll(99, 50, four);
+    GeneratedLevel[] part = big.generateRange(99, 20, 45, four);
+    // the same boards as at those positions of the whole batch:
+    t.checkExpect(part.length, 25);
+    t.checkExpect(part[0], all[20]);
+    t.checkExpect(part[24], all[44]);
+    t.checkExpect(big.generateRange(99, 7, 7, four).length, 0);
+    four.shutdown();
+  }
+}
@@ -0,0 +1,1008 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import tester.*;
+
+// finds how to rotate the tiles of a scrambled board, given in packed form,
+// so that every tile connects into a single tree
+// NOTE: every tile keeps a domain of the rotations still possible for it, as
+// a 4-bit set (bit k meaning k clockwise turns). Domains are first narrowed by
+// propagation alone: a tile cannot face off the board, two neighbours must
+// agree on whether the connection between them exists, joined tiles cannot
+// connect into a cycle, and no group of tiles can be closed off from the rest.
+// Only when that stalls does the search guess the rotation of the tile with
+// the fewest left, backing up if propagation then finds a contradiction.
+class BoardSolver {
+  // the connections of a tile with the given connections after the given
+  // number of clockwise turns, indexed by connections * 4 + turns
+  static final byte[] ORIENTED = new byte[64];
+  // the connections shared by every rotation in a domain, and those of any,
+  // indexed by connections * 16 + domain
+  static final byte[] MUST = new byte[256];
+  static final byte[] MAY = new byte[256];
+  // the rotations of a tile with the given connections that have (or, below,
+  // do not have) a connection in the given direction, indexed by
+  // connections * 4 + direction
+  static final byte[] WITH = new byte[64];
+  static final byte[] WITHOUT = new byte[64];
+
+  static {
+    for (int mask = 0; mask < 16; mask += 1) {
+      int turned = mask;
+      for (int k = 0; k < 4; k += 1) {
+        ORIENTED[mask * 4 + k] = (byte) turned;
+        for (int dir = 0; dir < 4; dir += 1) {
+          if ((turned & (1 << dir)) != 0) {
+            WITH[mask * 4 + dir] |= 1 << k;
+          }
+          else {
+            WITHOUT[mask * 4 + dir] |= 1 << k;
+          }
+        }
+        turned = PackedBoard.ROTATED[turned];
+      }
+      for (int domain = 0; domain < 16; domain += 1) {
+        int must = PackedBoard.CONNECTIONS;
+        int may = 0;
+        for (int k = 0; k < 4; k += 1) {
+          if ((domain & (1 << k)) != 0) {
+            must &= ORIENTED[mask * 4 + k];
+            may |= ORIENTED[mask * 4 + k];
+          }
+        }
+        MUST[mask * 16 + domain] = (byte) must;
+        MAY[mask * 16 + domain] = (byte) may;
+      }
+    }
+  }
+
+  PackedBoard board;
+  int size;
+  // the scrambled connections of every tile
+  int[] masks;
+  // the tiles still undecided before the search began, and how many there
+  // are, and for every tile the representative of the group of tiles joined
+  // to it by then, the size of that group (for representatives), and the
+  // connections it had to have by then
+  int[] active;
+  int activeCount;
+  int[] groupOf;
+  int[] groupSize;
+  int[] decided;
+  // reusable buffers: a ring buffer of tiles whose domains changed, and
+  // whether each is queued; and the disjoint-set forest of groups joined by
+  // connections they must have, with the size of each set and the number
+  // and last of the connections that may still lead out of it
+  int[] queue;
+  boolean[] queued;
+  int[] parents;
+  int[] sizes;
+  int[] exits;
+  int[] lastExit;
+  // the trail of domains narrowed so far, as the tile narrowed and its domain
+  // before, with how long it is, so that guesses can be undone; and for each
+  // guess being tried, its tile, the rotations not yet tried for it, and how
+  // long the trail was before it
+  int[] trailTiles;
+  byte[] trailDomains;
+  int trailSize;
+  int[] guessTiles;
+  int[] guessesLeft;
+  int[] guessMarks;
+  // how many times the search guessed a rotation, how deep it went, and how
+  // many rounds of propagation (each making neighbours agree, then keeping
+  // the tiles a tree) it ran in all
+  int branches;
+  int maxDepth;
+  int rounds;
+  // set once any solver searching the same board in parallel has found a
+  // solution, so the rest can stop (null when searching alone)
+  AtomicBoolean cancelled;
+
+  BoardSolver(PackedBoard board) {
+    this.board = board;
+    this.size = board.tiles.length;
+    this.masks = new int[this.size];
+    for (int i = 0; i < this.size; i += 1) {
+      this.masks[i] = board.connections(i);
+    }
+    this.active = new int[this.size];
+    this.groupOf = new int[this.size];
+    this.groupSize = new int[this.size];
+    this.decided = new int[this.size];
+    this.initBuffers();
+    this.uncontract();
+  }
+
+  // constructor for a solver of the same board as the given one, sharing its
+  // contraction but with buffers of its own, so that both can search at once
+  BoardSolver(BoardSolver shared) {
+    this.board = shared.board;
+    this.size = shared.size;
+    this.masks = shared.masks;
+    this.active = shared.active;
+    this.activeCount = shared.activeCount;
+    this.groupOf = shared.groupOf;
+    this.groupSize = shared.groupSize;
+    this.decided = shared.decided;
+    this.cancelled = shared.cancelled;
+    this.initBuffers();
+  }
+
+  // EFFECT: allocates the buffers used while propagating and searching
+  void initBuffers() {
+    this.queue = new int[this.size];
+    this.queued = new boolean[this.size];
+    this.parents = new int[this.size];
+    this.sizes = new int[this.size];
+    this.exits = new int[this.size];
+    this.lastExit = new int[this.size];
+    this.trailTiles = new int[this.size * 3];
+    this.trailDomains = new byte[this.size * 3];
+    this.guessTiles = new int[this.size];
+    this.guessesLeft = new int[this.size];
+    this.guessMarks = new int[this.size];
+  }
+
+  // returns the rotations that solve this board, as the number of clockwise
+  // turns for every tile in row-major order, or null if it has no solution
+  byte[] solve() {
+    byte[] domains = this.prepare();
+    if (domains == null) {
+      return null;
+    }
+    return this.rotationsOf(this.search(domains));
+  }
+
+  // returns the rotations that solve this board, like solve, but with the
+  // search split across the given pool: every guess near the top of the
+  // search is tried by a task of its own, each with its own copy of the
+  // domains, and all stop as soon as one finds a solution
+  // NOTE: when the board has several solutions, which one is returned
+  // depends on which task finds its first
+  byte[] solveParallel(ForkJoinPool pool) {
+    byte[] domains = this.prepare();
+    if (domains == null) {
+      return null;
+    }
+    this.cancelled = new AtomicBoolean(false);
+    int splits = 2;
+    while ((1 << splits) < pool.getParallelism() * 4) {
+      splits += 1;
+    }
+    byte[] solution = pool.invoke(new SolveTask(this, domains, splits));
+    this.cancelled = null;
+    return this.rotationsOf(solution);
+  }
+
+  // returns the domains of every tile after propagating before any guess,
+  // contracting what they decided, or null if that shows there is no solution
+  byte[] prepare() {
+    this.branches = 0;
+    this.maxDepth = 0;
+    this.rounds = 0;
+    this.uncontract();
+    byte[] domains = this.initialDomains();
+    if (!this.propagateAll(domains)) {
+      return null;
+    }
+    this.contract(domains);
+    this.trailSize = 0;
+    return domains;
+  }
+
+  // returns how many different ways there are to solve this board, counting
+  // no further than the given limit
+  int countSolutions(int limit) {
+    byte[] domains = this.prepare();
+    if (domains == null) {
+      return 0;
+    }
+    return this.explore(domains, limit);
+  }
+
+  // returns the rotations chosen by the given solved domains (null for none)
+  byte[] rotationsOf(byte[] solution) {
+    if (solution == null) {
+      return null;
+    }
+    byte[] rotations = new byte[this.size];
+    for (int i = 0; i < this.size; i += 1) {
+      rotations[i] = (byte) Integer.numberOfTrailingZeros(solution[i]);
+    }
+    return rotations;
+  }
+
+  // returns the board as solved by the given rotations
+  PackedBoard apply(byte[] rotations) {
+    PackedBoard solved = new PackedBoard(this.board.width, this.board.height);
+    for (int i = 0; i < this.size; i += 1) {
+      solved.tiles[i] = this.board.tiles[i];
+      solved.setConnections(i, ORIENTED[this.masks[i] * 4 + rotations[i]]);
+    }
+    return solved;
+  }
+
+  // returns the domain of every tile before propagation: each distinct
+  // rotation of it, keeping only the fewest turns for rotations that look
+  // the same
+  byte[] initialDomains() {
+    byte[] domains = new byte[this.size];
+    for (int i = 0; i < this.size; i += 1) {
+      int domain = 0;
+      for (int k = 0; k < 4; k += 1) {
+        boolean repeat = false;
+        for (int earlier = 0; earlier < k; earlier += 1) {
+          repeat = repeat || ORIENTED[this.masks[i] * 4 + k] == ORIENTED[this.masks[i] * 4
+              + earlier];
+        }
+        if (!repeat) {
+          domain |= 1 << k;
+        }
+      }
+      domains[i] = (byte) domain;
+    }
+    return domains;
+  }
+
+  // returns the given (fully propagated) domains narrowed to the first
+  // solution found under them, with one rotation left in every tile's domain,
+  // or null, leaving them as they were, if there is none
+  byte[] search(byte[] domains) {
+    if (this.explore(domains, 1) == 0) {
+      return null;
+    }
+    return domains;
+  }
+
+  // returns how many solutions there are under the given (fully propagated)
+  // domains, counting no further than the given limit
+  // EFFECT: narrows the domains to the last solution counted if there were at
+  // least limit of them, and otherwise leaves them as they were
+  // NOTE: searches depth first, guessing each rotation of the tile with the
+  // fewest left in turn, and undoing guesses through the trail, so it takes
+  // no more memory than the board itself however deep it goes
+  int explore(byte[] domains, int limit) {
+    int found = 0;
+    int depth = 0;
+    while (true) {
+      if (this.cancelled != null && this.cancelled.get()) {
+        this.undo(domains, depth > 0 ? this.guessMarks[0] : this.trailSize);
+        return 0;
+      }
+      int tile = this.branchTile(domains);
+      if (tile < 0) {
+        found += 1;
+        if (found == limit) {
+          return found;
+        }
+      }
+      else {
+        this.guessTiles[depth] = tile;
+        this.guessesLeft[depth] = domains[tile];
+        this.guessMarks[depth] = this.trailSize;
+        depth += 1;
+        this.maxDepth = Math.max(this.maxDepth, depth);
+      }
+      boolean consistent = false;
+      while (!consistent && depth > 0) {
+        int guess = depth - 1;
+        this.undo(domains, this.guessMarks[guess]);
+        if (this.guessesLeft[guess] == 0) {
+          depth -= 1;
+        }
+        else {
+          int rotation = this.guessesLeft[guess] & -this.guessesLeft[guess];
+          this.guessesLeft[guess] &= ~rotation;
+          this.branches += 1;
+          this.narrow(domains, this.guessTiles[guess], rotation);
+          consistent = this.propagateFrom(domains, this.guessTiles[guess]);
+        }
+      }
+      if (!consistent) {
+        return found;
+      }
+    }
+  }
+
+  // EFFECT: narrows the domain of the tile at the given index to the given
+  // rotations, recording what it was on the trail
+  void narrow(byte[] domains, int tile, int domain) {
+    this.trailTiles[this.trailSize] = tile;
+    this.trailDomains[this.trailSize] = domains[tile];
+    this.trailSize += 1;
+    domains[tile] = (byte) domain;
+  }
+
+  // EFFECT: restores every domain narrowed since the trail was the given length
+  void undo(byte[] domains, int mark) {
+    while (this.trailSize > mark) {
+      this.trailSize -= 1;
+      domains[this.trailTiles[this.trailSize]] = this.trailDomains[this.trailSize];
+    }
+  }
+
+  // returns the undecided tile with the fewest rotations left, or -1 if every
+  // tile is decided
+  int branchTile(byte[] domains) {
+    int best = -1;
+    int bestCount = 5;
+    for (int a = 0; a < this.activeCount && bestCount > 2; a += 1) {
+      int count = Integer.bitCount(domains[this.active[a]]);
+      if (count > 1 && count < bestCount) {
+        best = this.active[a];
+        bestCount = count;
+      }
+    }
+    return best;
+  }
+
+  // EFFECT: treats every tile as undecided and on its own, as before any
+  // propagation
+  void uncontract() {
+    for (int i = 0; i < this.size; i += 1) {
+      this.active[i] = i;
+      this.groupOf[i] = i;
+      this.groupSize[i] = 1;
+      this.decided[i] = 0;
+    }
+    this.activeCount = this.size;
+  }
+
+  // EFFECT: records the tiles joined together, and the tiles still undecided,
+  // under the given domains, so that keeping the tiles a tree under narrower
+  // domains need only look at the undecided tiles
+  // NOTE: a decided tile's connections never change, so a group of tiles it
+  // must connect to stays joined under any narrower domains
+  void contract(byte[] domains) {
+    for (int i = 0; i < this.size; i += 1) {
+      this.parents[i] = i;
+      this.sizes[i] = 1;
+    }
+    for (int i = 0; i < this.size; i += 1) {
+      int must = MUST[this.masks[i] * 16 + domains[i]];
+      for (int dir = 2; dir < 4; dir += 1) {
+        if ((must & (1 << dir)) != 0) {
+          this.union(i, this.board.adjacentTo(i, dir));
+        }
+      }
+    }
+    this.activeCount = 0;
+    for (int i = 0; i < this.size; i += 1) {
+      this.groupOf[i] = this.findRep(i);
+      this.groupSize[i] = this.sizes[i];
+      this.decided[i] = MUST[this.masks[i] * 16 + domains[i]];
+      if (this.decided[i] != MAY[this.masks[i] * 16 + domains[i]]) {
+        this.active[this.activeCount] = i;
+        this.activeCount += 1;
+      }
+    }
+  }
+
+  // EFFECT: narrows every domain, first to the rotations that do not face
+  // off the board, and then until no rule narrows any further
+  // returns false if the tiles can no longer form a tree
+  boolean propagateAll(byte[] domains) {
+    for (int i = 0; i < this.size; i += 1) {
+      for (int dir = 0; dir < 4; dir += 1) {
+        if (this.board.adjacentTo(i, dir) < 0) {
+          domains[i] &= WITHOUT[this.masks[i] * 4 + dir];
+        }
+      }
+      if (domains[i] == 0) {
+        return false;
+      }
+    }
+    for (int i = 0; i < this.size; i += 1) {
+      this.queue[i] = i;
+      this.queued[i] = true;
+    }
+    return this.settle(domains, this.size);
+  }
+
+  // EFFECT: narrows every domain until no rule narrows any further, starting
+  // from the tile at the given index, whose domain just changed
+  // returns false if the tiles can no longer form a tree
+  boolean propagateFrom(byte[] domains, int tile) {
+    this.queue[0] = tile;
+    this.queued[tile] = true;
+    return this.settle(domains, 1);
+  }
+
+  // EFFECT: narrows every domain, starting from the given number of tiles
+  // queued at the front of the queue, by alternating between making
+  // neighbours agree and keeping the tiles a tree, until neither narrows any
+  // further
+  // returns false if the tiles can no longer form a tree
+  boolean settle(byte[] domains, int count) {
+    while (count > 0) {
+      this.rounds += 1;
+      if (!this.propagate(domains, 0, count)) {
+        return false;
+      }
+      count = this.pruneTree(domains);
+    }
+    return count == 0;
+  }
+
+  // EFFECT: narrows the domains of the neighbours of every queued tile to the
+  // rotations that agree with it, queueing any neighbour that changed, until
+  // the queue (the count tiles starting at head) is empty
+  // returns false, emptying the queue, if some domain became empty
+  boolean propagate(byte[] domains, int head, int count) {
+    boolean ok = true;
+    while (count > 0) {
+      int tile = this.queue[head];
+      head = (head + 1) % this.size;
+      count -= 1;
+      this.queued[tile] = false;
+      if (!ok) {
+        continue;
+      }
+      int must = MUST[this.masks[tile] * 16 + domains[tile]];
+      int may = MAY[this.masks[tile] * 16 + domains[tile]];
+      for (int dir = 0; dir < 4 && ok; dir += 1) {
+        int next = this.board.adjacentTo(tile, dir);
+        if (next >= 0) {
+          int back = (dir + 2) % 4;
+          int domain = domains[next];
+          if ((must & (1 << dir)) != 0) {
+            domain &= WITH[this.masks[next] * 4 + back];
+          }
+          if ((may & (1 << dir)) == 0) {
+            domain &= WITHOUT[this.masks[next] * 4 + back];
+          }
+          if (domain != domains[next]) {
+            this.narrow(domains, next, domain);
+            ok = domain != 0;
+            if (!this.queued[next]) {
+              this.queue[(head + count) % this.size] = next;
+              this.queued[next] = true;
+              count += 1;
+            }
+          }
+        }
+      }
+    }
+    return ok;
+  }
+
+  // EFFECT: narrows the domains of agreeing neighbours to keep the tiles a
+  // tree: tiles already joined by the connections they must have cannot
+  // connect again, and a group of joined tiles that is not the whole board
+  // must take the only connection that may still lead out of it, queueing
+  // every tile that changed at the front of the queue
+  // returns how many tiles were queued, or -1 (queueing none) if the
+  // connections tiles must have form a cycle or cut a group off from the rest
+  // NOTE: only looks at the tiles undecided when last contracted, starting
+  // from the groups joined by then
+  int pruneTree(byte[] domains) {
+    for (int a = 0; a < this.activeCount; a += 1) {
+      int group = this.groupOf[this.active[a]];
+      this.parents[group] = group;
+      this.sizes[group] = this.groupSize[group];
+      this.exits[group] = 0;
+    }
+    for (int a = 0; a < this.activeCount; a += 1) {
+      int i = this.active[a];
+      int must = MUST[this.masks[i] * 16 + domains[i]] & ~this.decided[i];
+      for (int dir = 2; dir < 4; dir += 1) {
+        if ((must & (1 << dir)) != 0
+            && !this.union(this.groupOf[i], this.groupOf[this.board.adjacentTo(i, dir)])) {
+          return -1;
+        }
+      }
+    }
+    int count = 0;
+    for (int a = 0; a < this.activeCount; a += 1) {
+      int i = this.active[a];
+      int open = MAY[this.masks[i] * 16 + domains[i]] & ~MUST[this.masks[i] * 16 + domains[i]];
+      if (open != 0) {
+        int rep = this.findRep(this.groupOf[i]);
+        for (int dir = 0; dir < 4; dir += 1) {
+          if ((open & (1 << dir)) != 0) {
+            if (this.findRep(this.groupOf[this.board.adjacentTo(i, dir)]) == rep) {
+              this.narrow(domains, i, domains[i] & WITHOUT[this.masks[i] * 4 + dir]);
+              count = this.enqueue(i, count);
+            }
+            else {
+              this.exits[rep] += 1;
+              this.lastExit[rep] = i * 4 + dir;
+            }
+          }
+        }
+      }
+    }
+    for (int a = 0; a < this.activeCount; a += 1) {
+      int rep = this.findRep(this.groupOf[this.active[a]]);
+      if (this.exits[rep] >= 0 && this.sizes[rep] < this.size) {
+        if (this.exits[rep] == 0) {
+          for (int k = 0; k < count; k += 1) {
+            this.queued[this.queue[k]] = false;
+          }
+          return -1;
+        }
+        if (this.exits[rep] == 1) {
+          int tile = this.lastExit[rep] / 4;
+          int domain = domains[tile] & WITH[this.masks[tile] * 4 + this.lastExit[rep] % 4];
+          if (domain != domains[tile]) {
+            this.narrow(domains, tile, domain);
+            count = this.enqueue(tile, count);
+          }
+        }
+      }
+      this.exits[rep] = -1;
+    }
+    return count;
+  }
+
+  // EFFECT: queues the tile at the given index behind the given number of
+  // queued tiles, unless it is already queued
+  // returns how many tiles are queued now
+  int enqueue(int tile, int count) {
+    if (this.queued[tile]) {
+      return count;
+    }
+    this.queue[count] = tile;
+    this.queued[tile] = true;
+    return count + 1;
+  }
+
+  // finds the representative of the given tile in the disjoint-set forest
+  // EFFECT: halves the path walked, so later searches are shorter
+  int findRep(int index) {
+    while (this.parents[index] != index) {
+      this.parents[index] = this.parents[this.parents[index]];
+      index = this.parents[index];
+    }
+    return index;
+  }
+
+  // EFFECT: merges the sets containing the two given tiles, hanging the
+  // smaller set under the larger one
+  // returns whether the tiles were in different sets before the merge
+  boolean union(int a, int b) {
+    int repA = this.findRep(a);
+    int repB = this.findRep(b);
+    if (repA == repB) {
+      return false;
+    }
+    if (this.sizes[repA] < this.sizes[repB]) {
+      int temp = repA;
+      repA = repB;
+      repB = temp;
+    }
+    this.parents[repB] = repA;
+    this.sizes[repA] += this.sizes[repB];
+    return true;
+  }
+}
+
+// represents searching part of a board's solutions in parallel: either
+// splitting the search by trying every rotation of its next guess in a task
+// of its own, or searching what is left alone
+class SolveTask extends RecursiveTask<byte[]> {
+  private static final long serialVersionUID = 1L;
+  BoardSolver shared;
+  byte[] domains;
+  int splits;
+
+  SolveTask(BoardSolver shared, byte[] domains, int splits) {
+    this.shared = shared;
+    this.domains = domains;
+    this.splits = splits;
+  }
+
+  // returns the first solution found under this task's domains, or null if
+  // there is none or another task found one first
+  protected byte[] compute() {
+    if (this.shared.cancelled.get()) {
+      return null;
+    }
+    BoardSolver worker = new BoardSolver(this.shared);
+    byte[] solution = null;
+    int tile = worker.branchTile(this.domains);
+    if (tile < 0) {
+      solution = this.domains;
+    }
+    else if (this.splits == 0) {
+      solution = worker.search(this.domains);
+    }
+    else {
+      ArrayList<SolveTask> tasks = new ArrayList<SolveTask>();
+      for (int k = 0; k < 4; k += 1) {
+        if ((this.domains[tile] & (1 << k)) != 0) {
+          byte[] guess = Arrays.copyOf(this.domains, this.domains.length);
+          worker.trailSize = 0;
+          worker.narrow(guess, tile, 1 << k);
+          if (worker.propagateFrom(guess, tile)) {
+            tasks.add(new SolveTask(this.shared, guess, this.splits - 1));
+          }
+        }
+      }
+      invokeAll(tasks);
+      for (int i = 0; i < tasks.size() && solution == null; i += 1) {
+        solution = tasks.get(i).join();
+      }
+      return solution;
+    }
+    if (solution != null) {
+      this.shared.cancelled.set(true);
+    }
+    return solution;
+  }
+}
+
+class ExamplesBoardSolver {
+  // a 3x2 board, solved by two rows of pipes, each an end, a T and an end,
+  // with the Ts joined down the middle
+  PackedBoard solved;
+  PackedBoard scrambled;
+  BoardSolver solver;
+
+  void init() {
+    this.solved = new PackedBoard(3, 2);
+    this.solved.tiles = new byte[] { 4, 13, 1, 4, 7, 1 };
+    this.scrambled = new PackedBoard(3, 2);
+    this.scrambled.tiles = new byte[] { 1, 11, 8, 8, 14, 2 };
+    this.solver = new BoardSolver(this.scrambled);
+  }
+
+  void testTables(Tester t) {
+    t.checkExpect(BoardSolver.ORIENTED[PackedBoard.LEFT * 4 + 1], (byte) PackedBoard.TOP);
+    t.checkExpect(BoardSolver.ORIENTED[PackedBoard.LEFT * 4 + 3], (byte) PackedBoard.BOTTOM);
+    // a straight pipe in either orientation may face anywhere, but must face
+    // nowhere in particular:
+    t.checkExpect(BoardSolver.MAY[5 * 16 + 3], (byte) 15);
+    t.checkExpect(BoardSolver.MUST[5 * 16 + 3], (byte) 0);
+    t.checkExpect(BoardSolver.MUST[5 * 16 + 5], (byte) 5);
+    // an end faces left only unturned:
+    t.checkExpect(BoardSolver.WITH[PackedBoard.LEFT * 4 + 0], (byte) 1);
+    t.checkExpect(BoardSolver.WITHOUT[PackedBoard.LEFT * 4 + 0], (byte) 14);
+    t.checkExpect(BoardSolver.WITH[15 * 4 + 2], (byte) 15);
+  }
+
+  void testInitialDomains(Tester t) {
+    this.init();
+    t.checkExpect(this.solver.initialDomains(), new byte[] { 15, 15, 15, 15, 15, 15 });
+    PackedBoard shapes = new PackedBoard(4, 1);
+    shapes.tiles = new byte[] { 5, 15, 0, 6 };
+    // straight pipes look the same after two turns, crosses and blanks after one:
+    t.checkExpect(new BoardSolver(shapes).initialDomains(), new byte[] { 3, 1, 1, 15 });
+  }
+
+  void testPropagateAll(Tester t) {
+    this.init();
+    byte[] domains = this.solver.initialDomains();
+    // CHANGE
+    t.checkExpect(this.solver.propagateAll(domains), true);
+    // AFTER
+    // the Ts cannot face off the board, which leaves each one rotation, and
+    // then the ends must face them:
+    t.checkExpect(domains, new byte[] { 4, 8, 2, 8, 8, 8 });
+    t.checkExpect(this.solver.queued, new boolean[6]);
+    PackedBoard impossible = new PackedBoard(2, 1);
+    impossible.tiles = new byte[] { 15, 1 };
+    BoardSolver stuck = new BoardSolver(impossible);
+    t.checkExpect(stuck.propagateAll(stuck.initialDomains()), false);
+  }
+
+  void testPropagateFrom(Tester t) {
+    this.init();
+    // every tile narrowed to the rotations that do not face off the board,
+    // which leaves the Ts one each:
+    byte[] domains = new byte[] { 12, 8, 3, 12, 8, 9 };
+    // CHANGE
+    t.checkExpect(this.solver.propagateFrom(domains, 1), true);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 4, 8, 2, 8, 8, 8 });
+    // the bottom right end facing up, away from the T facing it:
+    domains = new byte[] { 12, 8, 3, 12, 8, 1 };
+    t.checkExpect(this.solver.propagateFrom(domains, 5), false);
+    t.checkExpect(this.solver.queued, new boolean[6]);
+  }
+
+  void testPropagate(Tester t) {
+    this.init();
+    byte[] domains = new byte[] { 15, 8, 15, 15, 15, 15 };
+    this.solver.queue[4] = 1;
+    this.solver.queued[1] = true;
+    // CHANGE
+    t.checkExpect(this.solver.propagate(domains, 4, 1), true);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 4, 8, 2, 11, 13, 14 });
+    // the bottom right end facing left, at a T that cannot face right:
+    domains[4] = 4;
+    domains[5] = 8;
+    this.solver.queue[0] = 5;
+    this.solver.queued[5] = true;
+    t.checkExpect(this.solver.propagate(domains, 0, 1), false);
+    t.checkExpect(this.solver.queued, new boolean[6]);
+  }
+
+  void testBranchTile(Tester t) {
+    this.init();
+    t.checkExpect(this.solver.branchTile(new byte[] { 1, 1, 1, 1, 1, 1 }), -1);
+    t.checkExpect(this.solver.branchTile(new byte[] { 1, 15, 7, 1, 3, 1 }), 4);
+    t.checkExpect(this.solver.branchTile(new byte[] { 1, 15, 7, 1, 1, 1 }), 2);
+  }
+
+  void testUncontract(Tester t) {
+    this.init();
+    this.solver.contract(new byte[] { 4, 8, 2, 8, 8, 8 });
+    // CHANGE
+    this.solver.uncontract();
+    // AFTER
+    t.checkExpect(this.solver.activeCount, 6);
+    t.checkExpect(this.solver.active, new int[] { 0, 1, 2, 3, 4, 5 });
+    t.checkExpect(this.solver.groupOf, new int[] { 0, 1, 2, 3, 4, 5 });
+    t.checkExpect(this.solver.groupSize, new int[] { 1, 1, 1, 1, 1, 1 });
+    t.checkExpect(this.solver.decided, new int[6]);
+  }
+
+  void testContract(Tester t) {
+    this.init();
+    // CHANGE
+    // the top row decided, and joined to the T below it, which may still
+    // turn to face left or down, but must face up and right:
+    this.solver.contract(new byte[] { 4, 8, 2, 15, 9, 15 });
+    // AFTER
+    t.checkExpect(this.solver.activeCount, 3);
+    t.checkExpect(Arrays.copyOf(this.solver.active, 3), new int[] { 3, 4, 5 });
+    t.checkExpect(this.solver.groupOf, new int[] { 0, 0, 0, 3, 0, 0 });
+    t.checkExpect(this.solver.groupSize[0], 5);
+    t.checkExpect(this.solver.groupSize[3], 1);
+    t.checkExpect(this.solver.decided, new int[] { 4, 13, 1, 0, 6, 0 });
+  }
+
+  void testPruneTree(Tester t) {
+    // a 4x3 board left with two ways to join its halves by propagation alone:
+    // through the middle of the second row, or through its end below, which
+    // the top row has already joined
+    PackedBoard board = new PackedBoard(4, 3);
+    board.tiles = new byte[] { 1, 2, 2, 4, 14, 14, 14, 11, 2, 9, 3, 1 };
+    BoardSolver solver = new BoardSolver(board);
+    byte[] domains = new byte[] { 8, 6, 12, 2, 1, 6, 3, 1, 1, 4, 1, 2 };
+    // CHANGE
+    t.checkExpect(solver.pruneTree(domains), 2);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 8, 6, 12, 2, 1, 4, 1, 1, 1, 4, 1, 2 });
+    t.checkExpect(Arrays.copyOf(solver.queue, 2), new int[] { 5, 6 });
+    t.checkExpect(solver.queued[5], true);
+    // which settles the whole board:
+    t.checkExpect(solver.settle(domains, 2), true);
+    t.checkExpect(domains, new byte[] { 8, 4, 4, 2, 1, 4, 1, 1, 1, 4, 1, 2 });
+    t.checkExpect(solver.pruneTree(domains), 0);
+    PackedBoard square = new PackedBoard(2, 2);
+    square.tiles = new byte[] { 12, 9, 6, 3 };
+    // a closed loop:
+    t.checkExpect(new BoardSolver(square).pruneTree(new byte[] { 1, 1, 1, 1 }), -1);
+    PackedBoard blank = new PackedBoard(3, 1);
+    blank.tiles = new byte[] { 4, 1, 0 };
+    // a pair cut off from a blank tile:
+    t.checkExpect(new BoardSolver(blank).pruneTree(new byte[] { 1, 1, 1 }), -1);
+  }
+
+  void testSettle(Tester t) {
+    this.init();
+    byte[] domains = new byte[] { 15, 8, 15, 15, 8, 15 };
+    this.solver.queue[0] = 1;
+    this.solver.queue[1] = 4;
+    this.solver.queued[1] = true;
+    this.solver.queued[4] = true;
+    // CHANGE
+    t.checkExpect(this.solver.settle(domains, 2), true);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 4, 8, 2, 8, 8, 8 });
+    domains[5] = 1;
+    this.solver.queue[0] = 5;
+    this.solver.queued[5] = true;
+    t.checkExpect(this.solver.settle(domains, 1), false);
+    t.checkExpect(this.solver.queued, new boolean[6]);
+  }
+
+  void testEnqueue(Tester t) {
+    this.init();
+    t.checkExpect(this.solver.enqueue(3, 0), 1);
+    t.checkExpect(this.solver.enqueue(5, 1), 2);
+    t.checkExpect(this.solver.enqueue(3, 2), 2);
+    t.checkExpect(Arrays.copyOf(this.solver.queue, 2), new int[] { 3, 5 });
+    t.checkExpect(this.solver.queued, new boolean[] { false, false, false, true, false, true });
+  }
+
+  void testNarrowAndUndo(Tester t) {
+    this.init();
+    byte[] domains = new byte[] { 15, 15, 15, 15, 15, 15 };
+    // CHANGE
+    this.solver.narrow(domains, 2, 6);
+    this.solver.narrow(domains, 4, 8);
+    this.solver.narrow(domains, 2, 2);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 15, 15, 2, 15, 8, 15 });
+    t.checkExpect(this.solver.trailSize, 3);
+    // CHANGE
+    this.solver.undo(domains, 1);
+    // AFTER
+    t.checkExpect(domains, new byte[] { 15, 15, 6, 15, 15, 15 });
+    t.checkExpect(this.solver.trailSize, 1);
+    this.solver.undo(domains, 0);
+    t.checkExpect(domains, new byte[] { 15, 15, 15, 15, 15, 15 });
+  }
+
+  void testFindRep(Tester t) {
+    this.init();
+    this.solver.parents = new int[] { 1, 2, 3, 3, 4, 5 };
+    t.checkExpect(this.solver.findRep(0), 3);
+    t.checkExpect(this.solver.parents, new int[] { 2, 2, 3, 3, 4, 5 });
+  }
+
+  void testUnion(Tester t) {
+    this.init();
+    this.solver.parents = new int[] { 0, 1, 2, 3, 4, 5 };
+    this.solver.sizes = new int[] { 1, 1, 1, 1, 1, 1 };
+    t.checkExpect(this.solver.union(0, 1), true);
+    t.checkExpect(this.solver.union(2, 1), true);
+    t.checkExpect(this.solver.union(2, 0), false);
+    t.checkExpect(this.solver.parents, new int[] { 0, 0, 0, 3, 4, 5 });
+    t.checkExpect(this.solver.sizes[0], 3);
+  }
+
+  void testSearch(Tester t) {
+    this.init();
+    byte[] domains = this.solver.initialDomains();
+    this.solver.propagateAll(domains);
+    t.checkExpect(this.solver.search(domains), new byte[] { 4, 8, 2, 8, 8, 8 });
+    t.checkExpect(this.solver.branches, 0);
+    // a board propagation alone cannot settle:
+    BoardSolver solver = new BoardSolver(new BoardGenerator(30, 20).generate(1).scrambled());
+    domains = solver.initialDomains();
+    solver.propagateAll(domains);
+    solver.contract(domains);
+    int undecided = solver.activeCount;
+    byte[] solution = solver.search(domains);
+    t.checkExpect(undecided > 0, true);
+    t.checkExpect(solver.branches > 0, true);
+    t.checkExpect(solver.maxDepth > 0, true);
+    boolean allDecided = true;
+    for (int i = 0; i < solution.length; i += 1) {
+      allDecided = allDecided && Integer.bitCount(solution[i]) == 1;
+    }
+    t.checkExpect(allDecided, true);
+    PackedBoard square = new PackedBoard(2, 2);
+    square.tiles = new byte[] { 12, 9, 6, 3 };
+    BoardSolver loop = new BoardSolver(square);
+    // with nothing decided, every guess leads to the loop, which is no tree:
+    t.checkExpect(loop.search(new byte[] { 1, 1, 1, 15 }), null);
+  }
+
+  void testSolve(Tester t) {
+    this.init();
+    byte[] rotations = this.solver.solve();
+    t.checkExpect(rotations, new byte[] { 2, 3, 1, 3, 3, 3 });
+    t.checkExpect(this.solver.apply(rotations), this.solved);
+    PackedBoard square = new PackedBoard(2, 2);
+    square.tiles = new byte[] { 12, 9, 6, 3 };
+    t.checkExpect(new BoardSolver(square).solve(), null);
+  }
+
+  void testSolveGenerated(Tester t) {
+    BoardGenerator generator = new BoardGenerator(30, 20);
+    boolean allSolved = true;
+    for (int n = 0; n < 10; n += 1) {
+      PackedBoard scrambled = generator.generate(n).scrambled();
+      BoardSolver solver = new BoardSolver(scrambled);
+      byte[] rotations = solver.solve();
+      allSolved = allSolved && rotations != null && solver.apply(rotations).isSpanningTree();
+    }
+    t.checkExpect(allSolved, true);
+    PackedBoard big = new BoardGenerator(100, 100).generate(3).scrambled();
+    BoardSolver bigSolver = new BoardSolver(big);
+    t.checkExpect(bigSolver.apply(bigSolver.solve()).isSpanningTree(), true);
+  }
+
+  void testWorkerConstructor(Tester t) {
+    this.init();
+    this.solver.cancelled = new AtomicBoolean(false);
+    BoardSolver worker = new BoardSolver(this.solver);
+    // the board and its contraction are shared:
+    t.checkExpect(worker.masks == this.solver.masks, true);
+    t.checkExpect(worker.active == this.solver.active, true);
+    t.checkExpect(worker.groupOf == this.solver.groupOf, true);
+    t.checkExpect(worker.activeCount, 6);
+    t.checkExpect(worker.cancelled == this.solver.cancelled, true);
+    // but nothing used while searching is:
+    t.checkExpect(worker.queue == this.solver.queue, false);
+    t.checkExpect(worker.parents == this.solver.parents, false);
+    t.checkExpect(worker.trailTiles == this.solver.trailTiles, false);
+    t.checkExpect(worker.guessTiles == this.solver.guessTiles, false);
+    t.checkExpect(worker.trailTiles.length, 18);
+    t.checkExpect(worker.trailSize, 0);
+  }
+
+  void testSearchCancelled(Tester t) {
+    BoardSolver solver = new BoardSolver(new BoardGenerator(30, 20).generate(1).scrambled());
+    byte[] domains = solver.prepare();
+    byte[] before = Arrays.copyOf(domains, domains.length);
+    solver.cancelled = new AtomicBoolean(true);
+    // CHANGE
+    t.checkExpect(solver.search(domains), null);
+    // AFTER
+    t.checkExpect(solver.branches, 0);
+    t.checkExpect(domains, before);
+  }
+
+  void testPrepare(Tester t) {
+    this.init();
+    // propagation alone settles the small board:
+    t.checkExpect(this.solver.prepare(), new byte[] { 4, 8, 2, 8, 8, 8 });
+    t.checkExpect(this.solver.activeCount, 0);
+    PackedBoard square = new PackedBoard(2, 2);
+    square.tiles = new byte[] { 12, 9, 6, 3 };
+    t.checkExpect(new BoardSolver(square).prepare(), null);
+  }
+
+  void testRotationsOf(Tester t) {
+    this.init();
+    t.checkExpect(this.solver.rotationsOf(new byte[] { 4, 8, 2, 8, 8, 8 }),
+        new byte[] { 2, 3, 1, 3, 3, 3 });
+    t.checkExpect(this.solver.rotationsOf(null), null);
+  }
+
+  void testSolveParallel(Tester t) {
+    this.init();
+    ForkJoinPool four = new ForkJoinPool(4);
+    t.checkExpect(this.solver.solveParallel(four), new byte[] { 2, 3, 1, 3, 3, 3 });
+    t.checkExpect(this.solver.cancelled, null);
+    PackedBoard square = new PackedBoard(2, 2);
+    square.tiles = new byte[] { 12, 9, 6, 3 };
+    t.checkExpect(new BoardSolver(square).solveParallel(four), null);
+    BoardGenerator generator = new BoardGenerator(30, 20);
+    boolean allSolved = true;
+    for (int n = 0; n < 10; n += 1) {
+      BoardSolver solver = new BoardSolver(generator.generate(n).scrambled());
+      byte[] rotations = solver.solveParallel(four);
+      allSolved = allSolved && rotations != null && solver.apply(rotations).isSpanningTree();
+    }
+    t.checkExpect(allSolved, true);
+    BoardSolver big = new BoardSolver(new BoardGenerator(100, 100).generate(3).scrambled());
+    t.checkExpect(big.apply(big.solveParallel(four)).isSpanningTree(), true);
+    four.shutdown();
+  }
+
+  void testSolveTask(Tester t) {
+    this.init();
+    this.solver.cancelled = new AtomicBoolean(false);
+    byte[] domains = this.solver.prepare();
+    ForkJoinPool one = new ForkJoinPool(1);
+    // nothing left to guess, so the domains are already the solution:
+    t.checkExpect(one.invoke(new SolveTask(this.solver, domains, 3)),
+        new byte[] { 4, 8, 2, 8, 8, 8 });
+    t.checkExpect(this.solver.cancelled.get(), true);
+    // once cancelled, other tasks give up straight away:
+    BoardSolver solver = new BoardSolver(new BoardGenerator(30, 20).generate(1).scrambled());
+    solver.cancelled = new AtomicBoolean(true);
+    t.checkExpect(one.invoke(new SolveTask(solver, solver.prepare(), 3)), null);
+    one.shutdown();
+  }
+
+  void testCountSolutions(Tester t) {
+    // a 3x3 board around a cross, with two solutions:
+    PackedBoard cross = new PackedBoard(3, 3);
+    cross.tiles = new byte[] { 8, 12, 1, 6, 15, 9, 4, 3, 2 };
+    t.checkExpect(new BoardSolver(cross).countSolutions(1), 1);
+    t.checkExpect(new BoardSolver(cross).countSolutions(2), 2);
+    // no more are found when counting further:
+    t.checkExpect(new BoardSolver(cross).countSolutions(100), 2);
+    PackedBoard loop = new PackedBoard(2, 2);
+    loop.tiles = new byte[] { 12, 9, 6, 3 };
+    t.checkExpect(new BoardSolver(loop).countSolutions(2), 0);
+  }
+
+  void testApply(Tester t) {
+    this.init();
+    PackedBoard board = this.solver.apply(new byte[] { 0, 1, 2, 3, 0, 0 });
+    t.checkExpect(board.tiles, new byte[] { 1, 7, 2, 4, 14, 2 });
+    // the scrambled board is untouched:
+    t.checkExpect(this.scrambled.tiles, new byte[] { 1, 11, 8, 8, 14, 2 });
+  }
+}
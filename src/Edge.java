@@ -0,0 +1,28 @@
+import java.util.*;
+
+// represents an edge on the graph of pieces in this game
+class Edge {
+  // the exclusive upper bound on randomly generated weights
+  static final int MAX_WEIGHT = 1000;
+  GamePiece fromNode;
+  GamePiece toNode;
+  int weight;
+
+  Edge(GamePiece fromNode, GamePiece toNode, Random rand) {
+    this.fromNode = fromNode;
+    this.toNode = toNode;
+    this.weight = rand.nextInt(MAX_WEIGHT);
+  }
+
+  // convenience constructor for testing
+  Edge(GamePiece fromNode, GamePiece toNode, int weight) {
+    this.fromNode = fromNode;
+    this.toNode = toNode;
+    this.weight = weight;
+  }
+
+  // returns the weight of this edge as a string
+  public String toString() {
+    return "" + this.weight;
+  }
+}
@@ -0,0 +1,440 @@
+import java.util.*;
+import tester.*;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+
+// represents a board that goes on forever, split into square chunks that are each
+// generated only when first looked at, from a seed of their own, so that the
+// same chunk always comes out the same however it is reached
+// NOTE: every chunk is a spanning tree of its own tiles, and chunks are
+// stitched together by a single connection each into a comb: the chunks of
+// the row through the origin join their left and right neighbours, and every
+// other chunk joins the one next to it on the way to that row. Since the
+// chunks form a tree, and each joins the next by exactly one connection, the
+// whole board is one tree. The player's rotations are kept apart from the
+// chunks, and only for tiles that were rotated, so chunks can be thrown away
+// when the cache is full and generated again when they are next needed.
+class EndlessBoard {
+  // how many tiles wide and high every chunk is
+  static final int CHUNK = 16;
+  long seed;
+  // the chunks generated most recently, each solved but with the rotations
+  // that scramble it, keyed by the chunk's column and row
+  ChunkCache chunks;
+  // how many times each rotated tile has been rotated (mod 4) since it was
+  // generated, keyed by the tile's column and row
+  HashMap<Long, Integer> rotated;
+  // how many chunks have been generated so far, counting any generated again
+  int generatedCount;
+  BoardGenerator generator;
+
+  EndlessBoard(long seed, int cacheSize) {
+    if (cacheSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be a positive value.");
+    }
+    this.seed = seed;
+    this.chunks = new ChunkCache(cacheSize);
+    this.rotated = new HashMap<Long, Integer>();
+    this.generatedCount = 0;
+    this.generator = new BoardGenerator(CHUNK, CHUNK);
+  }
+
+  // returns the key of the given column and row, of either a tile or a chunk
+  static long key(int col, int row) {
+    return ((long) col << 32) | (row & 0xffffffffL);
+  }
+
+  // returns the seed the chunk in the given column and row is generated from
+  long chunkSeed(int chunkCol, int chunkRow) {
+    return BoardGenerator.mix64(this.seed + BoardGenerator.mix64(key(chunkCol, chunkRow)));
+  }
+
+  // returns where along its border the chunk generated from the given seed
+  // joins the next chunk on the way to the row through the origin
+  static int linkOf(long chunkSeed) {
+    return (int) ((BoardGenerator.mix64(chunkSeed) >>> 1) % CHUNK);
+  }
+
+  // returns the chunk in the given column and row, generating it if it is
+  // not in the cache
+  GeneratedLevel chunk(int chunkCol, int chunkRow) {
+    long key = key(chunkCol, chunkRow);
+    GeneratedLevel chunk = this.chunks.get(key);
+    if (chunk == null) {
+      chunk = this.generateChunk(chunkCol, chunkRow);
+      this.chunks.put(key, chunk);
+    }
+    return chunk;
+  }
+
+  // returns the chunk in the given column and row, stitched to its
+  // neighbours, but without any of the player's rotations
+  GeneratedLevel generateChunk(int chunkCol, int chunkRow) {
+    this.generatedCount += 1;
+    long chunkSeed = this.chunkSeed(chunkCol, chunkRow);
+    GeneratedLevel chunk = this.generator.generate(chunkSeed);
+    PackedBoard solved = chunk.solved;
+    solved.setStation(0, false);
+    int last = CHUNK - 1;
+    // this chunk's own link, on the way to the row through the origin:
+    if (chunkRow > 0) {
+      this.stitch(solved, linkOf(chunkSeed), PackedBoard.TOP);
+    }
+    else if (chunkRow < 0) {
+      this.stitch(solved, last * CHUNK + linkOf(chunkSeed), PackedBoard.BOTTOM);
+    }
+    else {
+      this.stitch(solved, linkOf(chunkSeed) * CHUNK, PackedBoard.LEFT);
+      this.stitch(solved, linkOf(this.chunkSeed(chunkCol + 1, 0)) * CHUNK + last,
+          PackedBoard.RIGHT);
+    }
+    // and the links of the neighbours that lead through this chunk:
+    if (chunkRow >= 0) {
+      this.stitch(solved, last * CHUNK + linkOf(this.chunkSeed(chunkCol, chunkRow + 1)),
+          PackedBoard.BOTTOM);
+    }
+    if (chunkRow <= 0) {
+      this.stitch(solved, linkOf(this.chunkSeed(chunkCol, chunkRow - 1)), PackedBoard.TOP);
+    }
+    return chunk;
+  }
+
+  // EFFECT: adds the given connection (out of the chunk) to the tile at the
+  // given index of the given chunk
+  void stitch(PackedBoard solved, int index, int bit) {
+    solved.setConnections(index, solved.connections(index) | bit);
+  }
+
+  // returns the connections of the tile in the given column and row, as the
+  // player sees it
+  int connections(int col, int row) {
+    GeneratedLevel chunk = this.chunk(Math.floorDiv(col, CHUNK), Math.floorDiv(row, CHUNK));
+    int index = Math.floorMod(row, CHUNK) * CHUNK + Math.floorMod(col, CHUNK);
+    int mask = chunk.solved.connections(index);
+    for (int k = (chunk.rotations[index] + this.rotations(col, row)) % 4; k > 0; k -= 1) {
+      mask = PackedBoard.ROTATED[mask];
+    }
+    return mask;
+  }
+
+  // returns how many times the player has rotated the tile in the given
+  // column and row (mod 4)
+  int rotations(int col, int row) {
+    Integer turns = this.rotated.get(key(col, row));
+    if (turns == null) {
+      return 0;
+    }
+    return turns;
+  }
+
+  // EFFECT: rotates the tile in the given column and row clockwise, forgetting
+  // it altogether once it is back where it was generated
+  void rotate(int col, int row) {
+    int turns = (this.rotations(col, row) + 1) % 4;
+    if (turns == 0) {
+      this.rotated.remove(key(col, row));
+    }
+    else {
+      this.rotated.put(key(col, row), turns);
+    }
+  }
+
+  // does every connection of the tile in the given column and row meet a
+  // connection of the neighbour it leads to?
+  boolean isConnected(int col, int row) {
+    int mask = this.connections(col, row);
+    return ((mask & PackedBoard.LEFT) == 0
+        || (this.connections(col - 1, row) & PackedBoard.RIGHT) != 0)
+        && ((mask & PackedBoard.TOP) == 0
+            || (this.connections(col, row - 1) & PackedBoard.BOTTOM) != 0)
+        && ((mask & PackedBoard.RIGHT) == 0
+            || (this.connections(col + 1, row) & PackedBoard.LEFT) != 0)
+        && ((mask & PackedBoard.BOTTOM) == 0
+            || (this.connections(col, row + 1) & PackedBoard.TOP) != 0);
+  }
+}
+
+// represents the most recently used chunks of an endless board, keeping no
+// more than a given number and dropping the one used longest ago to make room
+class ChunkCache extends LinkedHashMap<Long, GeneratedLevel> {
+  private static final long serialVersionUID = 1L;
+  int capacity;
+
+  ChunkCache(int capacity) {
+    super(16, 0.75f, true);
+    this.capacity = capacity;
+  }
+
+  // should the given (least recently used) chunk be dropped?
+  protected boolean removeEldestEntry(Map.Entry<Long, GeneratedLevel> eldest) {
+    return this.size() > this.capacity;
+  }
+}
+
+// represents a game of LightEmAll on an endless board, seen through a window
+// that the arrow keys scroll
+// NOTE: there is no station on an endless board, so a tile is lit when every
+// pipe leaving it meets one coming back
+class EndlessWorld extends World {
+  // how many tiles wide and high the window is
+  static final int VIEW_WIDTH = 16;
+  static final int VIEW_HEIGHT = 12;
+  EndlessBoard board;
+  // the column and row of the tile in the window's top left corner
+  int viewCol;
+  int viewRow;
+
+  EndlessWorld(long seed) {
+    // enough chunks to cover the window wherever it lies across their borders:
+    this(new EndlessBoard(seed,
+        2 * (VIEW_WIDTH / EndlessBoard.CHUNK + 2) * (VIEW_HEIGHT / EndlessBoard.CHUNK + 2)));
+  }
+
+  EndlessWorld(EndlessBoard board) {
+    this.board = board;
+    this.viewCol = -VIEW_WIDTH / 2;
+    this.viewRow = -VIEW_HEIGHT / 2;
+  }
+
+  // displays the tiles in the window
+  public WorldScene makeScene() {
+    WorldScene scene = this.getEmptyScene();
+    for (int r = 0; r < VIEW_HEIGHT; r += 1) {
+      for (int c = 0; c < VIEW_WIDTH; c += 1) {
+        scene.placeImageXY(this.drawTile(this.viewCol + c, this.viewRow + r), c * 50 + 25,
+            r * 50 + 25);
+      }
+    }
+    return scene;
+  }
+
+  // returns the image of the tile in the given column and row, reusing
+  // GamePiece's sprites
+  WorldImage drawTile(int col, int row) {
+    int tile = this.board.connections(col, row);
+    if (this.board.isConnected(col, row)) {
+      tile |= PackedBoard.LIT;
+    }
+    return GamePiece.sprite(tile, 0, 1);
+  }
+
+  // EFFECT: rotates the clicked tile
+  public void onMouseClicked(Posn p) {
+    if (p.x > 0 && p.x < VIEW_WIDTH * 50 && p.y > 0 && p.y < VIEW_HEIGHT * 50) {
+      this.board.rotate(this.viewCol + p.x / 50, this.viewRow + p.y / 50);
+    }
+  }
+
+  // EFFECT: scrolls the window one tile in the direction of the arrow pressed
+  public void onKeyEvent(String key) {
+    if (key.equals("left")) {
+      this.viewCol -= 1;
+    }
+    else if (key.equals("up")) {
+      this.viewRow -= 1;
+    }
+    else if (key.equals("right")) {
+      this.viewCol += 1;
+    }
+    else if (key.equals("down")) {
+      this.viewRow += 1;
+    }
+  }
+}
+
+class ExamplesEndlessBoard {
+  EndlessBoard board;
+
+  void init() {
+    this.board = new EndlessBoard(11, 8);
+  }
+
+  // returns the tiles of the given chunks, as solved, in one packed board,
+  // leaving out connections that lead beyond them
+  PackedBoard solvedWindow(int chunkCol, int chunkRow, int chunkWidth, int chunkHeight) {
+    int size = EndlessBoard.CHUNK;
+    PackedBoard window = new PackedBoard(chunkWidth * size, chunkHeight * size);
+    for (int cr = 0; cr < chunkHeight; cr += 1) {
+      for (int cc = 0; cc < chunkWidth; cc += 1) {
+        PackedBoard solved = this.board.chunk(chunkCol + cc, chunkRow + cr).solved;
+        for (int i = 0; i < size * size; i += 1) {
+          int col = cc * size + i % size;
+          int row = cr * size + i / size;
+          int mask = solved.connections(i);
+          for (int dir = 0; dir < 4; dir += 1) {
+            if (window.adjacentTo(row * window.width + col, dir) < 0) {
+              mask &= ~(1 << dir);
+            }
+          }
+          window.setConnections(row * window.width + col, mask);
+        }
+      }
+    }
+    return window;
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkExpect(this.board.chunks.capacity, 8);
+    t.checkExpect(this.board.rotated.size(), 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("Cache size must be a positive value."), "EndlessBoard",
+        11L, 0);
+  }
+
+  void testKey(Tester t) {
+    t.checkExpect(EndlessBoard.key(0, 0), 0L);
+    t.checkExpect(EndlessBoard.key(1, 2), 0x100000002L);
+    t.checkExpect(EndlessBoard.key(-1, -1), -1L);
+    t.checkExpect(EndlessBoard.key(0, -1) == EndlessBoard.key(-1, 0), false);
+  }
+
+  void testChunkSeedAndLinkOf(Tester t) {
+    this.init();
+    t.checkExpect(this.board.chunkSeed(3, -4), new EndlessBoard(11, 1).chunkSeed(3, -4));
+    t.checkExpect(this.board.chunkSeed(3, -4) == this.board.chunkSeed(-4, 3), false);
+    t.checkExpect(this.board.chunkSeed(0, 0) == new EndlessBoard(12, 1).chunkSeed(0, 0), false);
+    boolean inRange = true;
+    for (long s = -50; s < 50; s += 1) {
+      int link = EndlessBoard.linkOf(s);
+      inRange = inRange && link >= 0 && link < EndlessBoard.CHUNK;
+    }
+    t.checkExpect(inRange, true);
+  }
+
+  void testGenerateChunk(Tester t) {
+    this.init();
+    int last = EndlessBoard.CHUNK - 1;
+    // a chunk above the origin's row leads up once, and is led to from below:
+    PackedBoard above = this.board.generateChunk(2, 3).solved;
+    int up = EndlessBoard.linkOf(this.board.chunkSeed(2, 3));
+    int fromBelow = EndlessBoard.linkOf(this.board.chunkSeed(2, 4));
+    int tops = 0;
+    int bottoms = 0;
+    int sides = 0;
+    for (int i = 0; i < EndlessBoard.CHUNK; i += 1) {
+      tops += above.connections(i) & PackedBoard.TOP;
+      bottoms += above.connections(last * EndlessBoard.CHUNK + i) & PackedBoard.BOTTOM;
+      sides += above.connections(i * EndlessBoard.CHUNK) & PackedBoard.LEFT;
+      sides += above.connections(i * EndlessBoard.CHUNK + last) & PackedBoard.RIGHT;
+    }
+    t.checkExpect(tops, PackedBoard.TOP);
+    t.checkExpect(bottoms, PackedBoard.BOTTOM);
+    t.checkExpect(sides, 0);
+    t.checkExpect(above.connections(up) & PackedBoard.TOP, PackedBoard.TOP);
+    t.checkExpect(above.connections(last * EndlessBoard.CHUNK + fromBelow)
+        & PackedBoard.BOTTOM, PackedBoard.BOTTOM);
+    t.checkExpect(above.hasStation(0), false);
+    // the same chunk comes out the same every time:
+    t.checkExpect(this.board.generateChunk(2, 3), this.board.generateChunk(2, 3));
+    t.checkExpect(this.board.generatedCount, 3);
+  }
+
+  void testStitchedIntoOneTree(Tester t) {
+    this.init();
+    // any block of chunks across the origin's row is one tree:
+    t.checkExpect(this.solvedWindow(-2, -1, 3, 3).isSpanningTree(), true);
+    t.checkExpect(this.solvedWindow(5, 0, 2, 1).isSpanningTree(), true);
+    t.checkExpect(this.solvedWindow(-1, -3, 1, 4).isSpanningTree(), true);
+    // but blocks that miss it fall apart:
+    t.checkExpect(this.solvedWindow(0, 1, 2, 1).isSpanningTree(), false);
+  }
+
+  void testChunkCache(Tester t) {
+    this.init();
+    // BEFORE
+    GeneratedLevel first = this.board.chunk(0, 0);
+    t.checkExpect(this.board.generatedCount, 1);
+    // CHANGE: looking again finds it in the cache
+    t.checkExpect(this.board.chunk(0, 0) == first, true);
+    t.checkExpect(this.board.generatedCount, 1);
+    // CHANGE: scrolling over many more chunks than the cache holds
+    for (int c = 1; c <= 20; c += 1) {
+      this.board.chunk(c, 0);
+      this.board.chunk(0, 0);
+    }
+    // AFTER: no more than 8 are kept, but the one in use all along is
+    t.checkExpect(this.board.chunks.size(), 8);
+    t.checkExpect(this.board.chunks.containsKey(EndlessBoard.key(0, 0)), true);
+    t.checkExpect(this.board.chunks.containsKey(EndlessBoard.key(1, 0)), false);
+    t.checkExpect(this.board.generatedCount, 21);
+    // a chunk thrown away comes back the same:
+    t.checkExpect(this.board.chunk(1, 0), this.board.generateChunk(1, 0));
+  }
+
+  void testConnectionsAndRotate(Tester t) {
+    this.init();
+    GeneratedLevel chunk = this.board.chunk(-1, -1);
+    // tile (-16, -16) is the first of chunk (-1, -1):
+    int mask = chunk.solved.connections(0);
+    for (int k = 0; k < chunk.rotations[0]; k += 1) {
+      mask = PackedBoard.ROTATED[mask];
+    }
+    t.checkExpect(this.board.connections(-16, -16), mask);
+    // CHANGE
+    this.board.rotate(-16, -16);
+    // AFTER
+    t.checkExpect(this.board.connections(-16, -16), (int) PackedBoard.ROTATED[mask]);
+    t.checkExpect(this.board.rotations(-16, -16), 1);
+    t.checkExpect(this.board.rotated.size(), 1);
+    // four turns bring it back, and it is forgotten:
+    this.board.rotate(-16, -16);
+    this.board.rotate(-16, -16);
+    this.board.rotate(-16, -16);
+    t.checkExpect(this.board.connections(-16, -16), mask);
+    t.checkExpect(this.board.rotated.size(), 0);
+    // rotations outlive the chunk they are in:
+    this.board.rotate(100, 100);
+    int turned = this.board.connections(100, 100);
+    for (int c = 0; c < 10; c += 1) {
+      this.board.chunk(c, 20);
+    }
+    t.checkExpect(this.board.chunks.containsKey(EndlessBoard.key(6, 6)), false);
+    t.checkExpect(this.board.connections(100, 100), turned);
+  }
+
+  void testIsConnected(Tester t) {
+    this.init();
+    // turning every tile of a block of chunks to its solution connects them all:
+    boolean all = true;
+    for (int row = -16; row < 32; row += 1) {
+      for (int col = -16; col < 32; col += 1) {
+        while (this.board.connections(col, row) != this.board.chunk(Math.floorDiv(col, 16),
+            Math.floorDiv(row, 16)).solved.connections(Math.floorMod(row, 16) * 16
+                + Math.floorMod(col, 16))) {
+          this.board.rotate(col, row);
+        }
+      }
+    }
+    for (int row = -15; row < 31; row += 1) {
+      for (int col = -15; col < 31; col += 1) {
+        all = all && this.board.isConnected(col, row);
+      }
+    }
+    t.checkExpect(all, true);
+  }
+
+  void testEndlessWorld(Tester t) {
+    EndlessWorld world = new EndlessWorld(11);
+    t.checkExpect(world.viewCol, -8);
+    t.checkExpect(world.viewRow, -6);
+    t.checkExpect(world.board.chunks.capacity, 2 * 3 * 2);
+    // CHANGE
+    world.onKeyEvent("left");
+    world.onKeyEvent("down");
+    world.onKeyEvent("down");
+    world.onKeyEvent("x");
+    // AFTER
+    t.checkExpect(world.viewCol, -9);
+    t.checkExpect(world.viewRow, -4);
+    int before = world.board.connections(-9, -4);
+    world.onMouseClicked(new Posn(25, 25));
+    t.checkExpect(world.board.connections(-9, -4), (int) PackedBoard.ROTATED[before]);
+    world.onMouseClicked(new Posn(-5, 25));
+    t.checkExpect(world.board.rotated.size(), 1);
+    t.checkExpect(world.makeScene() != null, true);
+    t.checkExpect(world.board.chunks.size() <= world.board.chunks.capacity, true);
+    // tiles are drawn from the sprites every game shares:
+    t.checkExpect(world.drawTile(-9, -4) == world.drawTile(-9, -4), true);
+  }
+}
@@ -0,0 +1,160 @@
+import java.awt.Color;
+import javalib.worldimages.*;
+
+// represents a tile in the game, which can connect to any of its surrounding
+// tiles and be powered or unpowered
+// NOTE: a GamePiece holds nothing of its own but where it is; its connections,
+// power, and station all live in the packed board it is a view of
+class GamePiece {
+  // how many shades lit pipes fade through as they get further from the station
+  static final int BRIGHTNESS_LEVELS = 16;
+  // every sprite drawn so far, shared by all pieces, indexed by connection
+  // mask, then station, then brightness level (0 for unlit)
+  static final WorldImage[] SPRITES = new WorldImage[16 * 2 * (BRIGHTNESS_LEVELS + 1)];
+  // the board this piece is a tile of, and where on it the tile is
+  PackedBoard board;
+  int index;
+  // in logical coordinates, with the origin
+  // at the top-left corner of the screen
+  int row;
+  int col;
+
+  // a view of the tile at the given index of the given board
+  GamePiece(PackedBoard board, int index) {
+    this.board = board;
+    this.index = index;
+    this.row = index / board.width;
+    this.col = index % board.width;
+  }
+
+  // a piece standing on its own, on a board of just itself, until it is
+  // moved onto a bigger one
+  GamePiece(int row, int col, boolean left, boolean top, boolean right, boolean bottom,
+      boolean powerStation) {
+    this.board = new PackedBoard(1, 1);
+    this.index = 0;
+    this.row = row;
+    this.col = col;
+    if (left) {
+      this.board.tiles[0] |= PackedBoard.LEFT;
+    }
+    if (top) {
+      this.board.tiles[0] |= PackedBoard.TOP;
+    }
+    if (right) {
+      this.board.tiles[0] |= PackedBoard.RIGHT;
+    }
+    if (bottom) {
+      this.board.tiles[0] |= PackedBoard.BOTTOM;
+    }
+    this.board.setStation(0, powerStation);
+  }
+
+  // EFFECT: copies this piece's tile onto the given board, at this piece's
+  // row and column, and makes this piece a view of it there
+  void moveTo(PackedBoard target) {
+    int at = this.row * target.width + this.col;
+    target.tiles[at] = this.board.tiles[this.index];
+    this.board = target;
+    this.index = at;
+  }
+
+  // EFFECT: rotates this game piece 90 degrees clockwise, updating all of its
+  // connections accordingly
+  void rotate() {
+    this.board.rotate(this.index);
+  }
+
+  // returns this gamepiece's connections as a mask of PackedBoard bits
+  int mask() {
+    return this.board.connections(this.index);
+  }
+
+  // EFFECT: sets this gamepiece's connections from a mask of PackedBoard bits
+  void setMask(int mask) {
+    this.board.setConnections(this.index, mask);
+  }
+
+  // is this piece receiving power from the power station?
+  boolean isLit() {
+    return this.board.isLit(this.index);
+  }
+
+  // EFFECT: marks whether this piece is receiving power
+  void setLit(boolean lit) {
+    this.board.setLit(this.index, lit);
+  }
+
+  // is the power station on this piece?
+  boolean hasStation() {
+    return this.board.hasStation(this.index);
+  }
+
+  // EFFECT: marks whether the power station is on this piece
+  void setStation(boolean station) {
+    this.board.setStation(this.index, station);
+  }
+
+  // displays this gamepiece, reusing the cached sprite for its connections,
+  // station, and brightness
+  WorldImage draw(int distToStation, int radius) {
+    return sprite(this.board.tiles[this.index], distToStation, radius);
+  }
+
+  // returns the cached sprite for a packed tile the given distance from the
+  // power station, drawing it the first time it is asked for
+  static WorldImage sprite(int tile, int distToStation, int radius) {
+    int level = 0;
+    if ((tile & PackedBoard.LIT) != 0) {
+      level = brightness(distToStation, radius);
+    }
+    int key = (tile & PackedBoard.CONNECTIONS) * 2 * (BRIGHTNESS_LEVELS + 1) + level;
+    if ((tile & PackedBoard.STATION) != 0) {
+      key += BRIGHTNESS_LEVELS + 1;
+    }
+    if (SPRITES[key] == null) {
+      Color color = Color.GRAY;
+      if (level > 0) {
+        color = new Color(255, 255, 0, 25 + (level - 1) * 230 / (BRIGHTNESS_LEVELS - 1));
+      }
+      SPRITES[key] = drawSprite(tile, color);
+    }
+    return SPRITES[key];
+  }
+
+  // returns the brightness level (from 1 to BRIGHTNESS_LEVELS) of a lit piece
+  // the given distance from the power station
+  static int brightness(int distToStation, int radius) {
+    int alpha = 255 - (int) ((double) (distToStation) / (double) (radius) * 255);
+    if (alpha < 25) {
+      alpha = 25;
+    }
+    else if (alpha > 255) {
+      alpha = 255;
+    }
+    return 1 + (alpha - 25) * (BRIGHTNESS_LEVELS - 1) / 230;
+  }
+
+  // draws a packed tile with its pipes in the given color
+  static WorldImage drawSprite(int tile, Color color) {
+    WorldImage img = new RectangleImage(50, 50, "solid", Color.DARK_GRAY);
+    img = new OverlayImage(new RectangleImage(50, 50, "outline", Color.BLACK), img);
+    if ((tile & PackedBoard.LEFT) != 0) {
+      img = new OverlayImage(new RectangleImage(25, 5, "solid", color).movePinhole(12, 0), img);
+    }
+    if ((tile & PackedBoard.TOP) != 0) {
+      img = new OverlayImage(new RectangleImage(5, 25, "solid", color).movePinhole(0, 12), img);
+    }
+    if ((tile & PackedBoard.RIGHT) != 0) {
+      img = new OverlayImage(new RectangleImage(25, 5, "solid", color).movePinhole(-12, 0), img);
+    }
+    if ((tile & PackedBoard.BOTTOM) != 0) {
+      img = new OverlayImage(new RectangleImage(5, 25, "solid", color).movePinhole(0, -12), img);
+    }
+    if ((tile & PackedBoard.STATION) != 0) {
+      img = new OverlayImage(new StarImage(20, 7, OutlineMode.SOLID, Color.ORANGE), img);
+      img = new OverlayImage(new StarImage(20, 7, OutlineMode.OUTLINE, Color.RED), img);
+    }
+    return img;
+  }
+}
@@ -0,0 +1,462 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import tester.*;
+
+// hosts many games at once, one for every player connected to a local
+// socket, each a game of PowerSupply played without a window, and speaks a
+// protocol of one command a line:
+// - "click col row" rotates the tile at the given column and row clockwise
+// - "key direction" moves the power station along a connection in the
+//   direction of the arrow key named (left, up, right or down)
+// - "snapshot" asks for the whole board
+// every command is answered by one line: "ok", or "won" once every tile is
+// lit, after a move, "board width height tiles" after a snapshot (with two
+// hex digits a tile, in packed form and row-major order), or "error reason"
+// NOTE: every connection is served from one thread, which waits on all of
+// them at once and wakes only for those with something to read or write,
+// so an idle player costs only their game and a small buffer, and never a
+// thread of their own
+// usage: java GameServer port width height
+class GameServer {
+  // the longest line a player may send, in bytes
+  static final int LINE_LIMIT = 64;
+  static final char[] HEX = "0123456789abcdef".toCharArray();
+  int width;
+  int height;
+  // the seed the next player's board is generated from
+  long nextSeed;
+  BoardGenerator generator;
+  Selector selector;
+  ServerSocketChannel server;
+  int sessions;
+
+  GameServer(int width, int height, long seed) {
+    this.generator = new BoardGenerator(width, height);
+    this.width = width;
+    this.height = height;
+    this.nextSeed = seed;
+    this.sessions = 0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      throw new IllegalArgumentException("Usage: GameServer port width height");
+    }
+    GameServer server = new GameServer(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+        System.nanoTime());
+    server.open(Integer.parseInt(args[0]));
+    System.out.println("Serving on port " + server.localPort());
+    server.serve();
+  }
+
+  // returns a new game for a player who just connected, with a board
+  // generated from the next seed and scrambled, the power station in the top
+  // left corner, and power sent from it
+  GameSession newSession() {
+    GeneratedLevel level = this.generator.generate(this.nextSeed);
+    this.nextSeed += 1;
+    return new GameSession(new PowerSupply(level, new Random(level.seed)));
+  }
+
+  // returns the answer to the given line of the protocol from the given game
+  // EFFECT: makes the move it asks for, if any
+  String handle(GameSession session, String line) {
+    String[] words = line.trim().split(" +");
+    try {
+      if (words[0].equals("click") && words.length == 3) {
+        this.click(session, this.parse(words[1]), this.parse(words[2]));
+      }
+      else if (words[0].equals("key") && words.length == 2) {
+        this.key(session, words[1]);
+      }
+      else if (words[0].equals("snapshot") && words.length == 1) {
+        return this.snapshot(session);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown command: " + line.trim());
+      }
+    }
+    catch (IllegalArgumentException e) {
+      return "error " + e.getMessage();
+    }
+    return session.game.gameWon() ? "won" : "ok";
+  }
+
+  // returns the number written in the given word
+  int parse(String word) {
+    try {
+      return Integer.parseInt(word);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number: " + word);
+    }
+  }
+
+  // EFFECT: rotates the tile of the given game at the given column and row
+  // clockwise, and updates which tiles are lit
+  // NOTE: only the tiles whose power flowed through the rotated tile are
+  // relit, just as in a game played in a window, so a click costs about as
+  // much on a big board as on a small one
+  void click(GameSession session, int col, int row) {
+    if (col < 0 || col >= this.width || row < 0 || row >= this.height) {
+      throw new IllegalArgumentException("Column and row must be on the board.");
+    }
+    session.game.turn(row * this.width + col, 1);
+  }
+
+  // EFFECT: moves the power station of the given game along a connection in
+  // the direction of the arrow key with the given name, if there is one, and
+  // sends power again
+  void key(GameSession session, String name) {
+    Integer direction = PowerSupply.KEY_DIRECTIONS.get(name);
+    if (direction == null) {
+      throw new IllegalArgumentException("Unknown key: " + name);
+    }
+    session.game.stepStation(direction);
+  }
+
+  // returns the given game's board as the answer to a snapshot
+  String snapshot(GameSession session) {
+    byte[] tiles = session.game.board.tiles;
+    StringBuilder answer = new StringBuilder(2 * tiles.length + 24);
+    answer.append("board ").append(this.width).append(' ').append(this.height).append(' ');
+    for (int i = 0; i < tiles.length; i += 1) {
+      answer.append(HEX[(tiles[i] >> 4) & 15]).append(HEX[tiles[i] & 15]);
+    }
+    return answer.toString();
+  }
+
+  // EFFECT: starts listening for players on the given port of the local
+  // machine (any free port if 0)
+  void open(int port) throws IOException {
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+  }
+
+  // returns the port this server is listening on
+  int localPort() throws IOException {
+    return ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+  }
+
+  // EFFECT: serves every player, forever
+  void serve() throws IOException {
+    while (true) {
+      this.poll(0);
+    }
+  }
+
+  // EFFECT: waits up to the given number of milliseconds (forever if 0) for
+  // any player to connect, send a line or be ready for more of an answer, and
+  // serves every one that is
+  void poll(long millis) throws IOException {
+    this.selector.select(millis);
+    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      try {
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.isAcceptable()) {
+          this.accept();
+        }
+        else if (key.isWritable()) {
+          this.flush(key);
+        }
+        else if (key.isReadable()) {
+          this.read(key);
+        }
+      }
+      catch (IOException e) {
+        // only this player's connection failed, so only it is closed:
+        this.disconnect(key);
+      }
+    }
+  }
+
+  // EFFECT: starts a new game for every player waiting to connect
+  void accept() throws IOException {
+    SocketChannel channel = this.server.accept();
+    while (channel != null) {
+      channel.configureBlocking(false);
+      channel.register(this.selector, SelectionKey.OP_READ, this.newSession());
+      this.sessions += 1;
+      channel = this.server.accept();
+    }
+  }
+
+  // EFFECT: reads what the given key's player sent, and answers every whole
+  // line of it
+  void read(SelectionKey key) throws IOException {
+    GameSession session = (GameSession) key.attachment();
+    if (((SocketChannel) key.channel()).read(session.in) < 0) {
+      this.disconnect(key);
+      return;
+    }
+    this.answerLines(key);
+  }
+
+  // EFFECT: answers every whole line waiting in the given key's input, until
+  // an answer cannot be written at once, and drops a player whose line is
+  // longer than the limit
+  void answerLines(SelectionKey key) throws IOException {
+    GameSession session = (GameSession) key.attachment();
+    ByteBuffer in = session.in;
+    int end = this.lineEnd(in);
+    while (end >= 0 && session.out == null) {
+      String line = new String(in.array(), 0, end, StandardCharsets.US_ASCII);
+      in.flip();
+      in.position(end + 1);
+      in.compact();
+      this.write(key, this.handle(session, line));
+      end = this.lineEnd(in);
+    }
+    if (end < 0 && !in.hasRemaining()) {
+      this.write(key, "error Line is too long.");
+      this.disconnect(key);
+    }
+  }
+
+  // returns the position of the first newline read into the given buffer, or
+  // -1 if there is none
+  int lineEnd(ByteBuffer in) {
+    for (int i = 0; i < in.position(); i += 1) {
+      if (in.get(i) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // EFFECT: writes the given line to the given key's player, keeping what it
+  // cannot take yet to be flushed once it can, and not reading from it
+  // until then
+  void write(SelectionKey key, String line) throws IOException {
+    GameSession session = (GameSession) key.attachment();
+    ByteBuffer out = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+    ((SocketChannel) key.channel()).write(out);
+    if (out.hasRemaining()) {
+      session.out = out;
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+  }
+
+  // EFFECT: writes more of the answer waiting for the given key's player, and
+  // once it is all written, goes back to answering the player's lines
+  void flush(SelectionKey key) throws IOException {
+    GameSession session = (GameSession) key.attachment();
+    ((SocketChannel) key.channel()).write(session.out);
+    if (!session.out.hasRemaining()) {
+      session.out = null;
+      key.interestOps(SelectionKey.OP_READ);
+      this.answerLines(key);
+    }
+  }
+
+  // EFFECT: closes the given key's connection, ending its game
+  void disconnect(SelectionKey key) throws IOException {
+    if (key.attachment() != null) {
+      this.sessions -= 1;
+      key.attach(null);
+    }
+    key.cancel();
+    key.channel().close();
+  }
+
+  // EFFECT: closes every connection and stops listening
+  void close() throws IOException {
+    for (SelectionKey key : this.selector.keys()) {
+      key.channel().close();
+    }
+    this.selector.close();
+    this.server.close();
+    this.sessions = 0;
+  }
+}
+
+// represents the game of one connected player, plus the bytes read from the
+// player but not yet answered, and the rest of an answer not yet written
+// (null if none)
+class GameSession {
+  PowerSupply game;
+  ByteBuffer in;
+  ByteBuffer out;
+
+  GameSession(PowerSupply game) {
+    this.game = game;
+    this.in = ByteBuffer.allocate(GameServer.LINE_LIMIT);
+    this.out = null;
+  }
+}
+
+class ExamplesGameServer {
+  GameServer server;
+  // a 3x1 board whose tiles are all joined, and its game with the station at
+  // the left
+  GameSession line;
+
+  void init() {
+    this.server = new GameServer(3, 1, 5);
+    PackedBoard board = new PackedBoard(3, 1);
+    board.tiles = new byte[] { 4, 5, 1 };
+    board.setStation(0, true);
+    this.line = new GameSession(new PowerSupply(new GeneratedLevel(5, board, new byte[3]),
+        new Random(5)));
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkExpect(this.server.width, 3);
+    t.checkExpect(this.server.nextSeed, 5L);
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "GameServer", 0, 4, 1L);
+  }
+
+  void testNewSession(Tester t) {
+    GameServer big = new GameServer(8, 6, 10);
+    // CHANGE
+    GameSession session = big.newSession();
+    // AFTER: the next seed's board, scrambled, with the station in the corner
+    t.checkExpect(big.nextSeed, 11L);
+    t.checkExpect(session.game.width, 8);
+    t.checkExpect(session.game.powerCol, 0);
+    t.checkExpect(session.game.powerRow, 0);
+    t.checkExpect(session.game.board.hasStation(0), true);
+    t.checkExpect(session.game.board.isLit(0), true);
+    GeneratedLevel level = new BoardGenerator(8, 6).generate(10);
+    PackedBoard expected = level.scrambled();
+    boolean scrambled = true;
+    for (int i = 0; i < 48; i += 1) {
+      scrambled = scrambled && session.game.board.connections(i) == expected.connections(i);
+    }
+    t.checkExpect(scrambled, true);
+    // the radius is measured on the solution, as in any other game:
+    t.checkExpect(session.game.radius, new PowerSupply(level.solved, new Random(1)).radius);
+    // every player gets a board of their own:
+    t.checkExpect(Arrays.equals(big.newSession().game.board.tiles, session.game.board.tiles),
+        false);
+  }
+
+  void testClick(Tester t) {
+    this.init();
+    t.checkExpect(this.line.game.litCount, 3);
+    // CHANGE: cut the middle tile off
+    this.server.click(this.line, 1, 0);
+    // AFTER
+    t.checkExpect(this.line.game.litCount, 1);
+    t.checkExpect(this.line.game.board.isLit(0), true);
+    t.checkExpect(this.line.game.board.isLit(1), false);
+    t.checkExpect(this.line.game.board.isLit(2), false);
+    // the move is not kept, as no player can undo it:
+    t.checkExpect(this.line.game.moves.size, 0);
+    // CHANGE: join it back up
+    this.server.click(this.line, 1, 0);
+    // AFTER: relit from the tiles around it, not from the station
+    t.checkExpect(this.line.game.litCount, 3);
+    t.checkExpect(this.line.game.board.isLit(2), true);
+    t.checkExpect(this.line.game.powerNum, 1);
+  }
+
+  void testHandle(Tester t) {
+    this.init();
+    // BEFORE: every tile lit
+    t.checkExpect(this.server.handle(this.line, "snapshot"), "board 3 1 341511");
+    // CHANGE
+    t.checkExpect(this.server.handle(this.line, "click 1 0"), "ok");
+    // AFTER
+    t.checkExpect(this.server.handle(this.line, " snapshot  "), "board 3 1 340a01");
+    // CHANGE: three more turns bring it back
+    this.server.handle(this.line, "click 1 0");
+    this.server.handle(this.line, "click 1 0");
+    t.checkExpect(this.server.handle(this.line, "click  1 0"), "won");
+    t.checkExpect(this.server.handle(this.line, "key right"), "won");
+    t.checkExpect(this.line.game.powerCol, 1);
+    t.checkExpect(this.server.handle(this.line, "snapshot"), "board 3 1 143511");
+    // no connection that way, so no move:
+    t.checkExpect(this.server.handle(this.line, "key up"), "won");
+    t.checkExpect(this.line.game.powerCol, 1);
+    // and the mistakes a player can make:
+    t.checkExpect(this.server.handle(this.line, "click 3 0"),
+        "error Column and row must be on the board.");
+    t.checkExpect(this.server.handle(this.line, "click a 0"), "error Not a number: a");
+    t.checkExpect(this.server.handle(this.line, "click 1"), "error Unknown command: click 1");
+    t.checkExpect(this.server.handle(this.line, "key space"), "error Unknown key: space");
+    t.checkExpect(this.server.handle(this.line, "jump"), "error Unknown command: jump");
+    t.checkExpect(this.server.handle(this.line, ""), "error Unknown command: ");
+  }
+
+  void testLineEnd(Tester t) {
+    this.init();
+    ByteBuffer in = ByteBuffer.allocate(16);
+    t.checkExpect(this.server.lineEnd(in), -1);
+    in.put("key up\nsn".getBytes(StandardCharsets.US_ASCII));
+    t.checkExpect(this.server.lineEnd(in), 6);
+  }
+
+  // returns the next line the given client reads, without its newline
+  String readLine(BufferedReader client, GameServer server) throws IOException {
+    for (int i = 0; i < 100 && !client.ready(); i += 1) {
+      server.poll(10);
+    }
+    return client.readLine();
+  }
+
+  void testServe(Tester t) {
+    GameServer served = new GameServer(4, 4, 1);
+    try {
+      served.open(0);
+      Socket first = new Socket(InetAddress.getLoopbackAddress(), served.localPort());
+      Socket second = new Socket(InetAddress.getLoopbackAddress(), served.localPort());
+      BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream(),
+          StandardCharsets.US_ASCII));
+      BufferedReader secondIn = new BufferedReader(new InputStreamReader(
+          second.getInputStream(), StandardCharsets.US_ASCII));
+      Writer firstOut = new OutputStreamWriter(first.getOutputStream(),
+          StandardCharsets.US_ASCII);
+      Writer secondOut = new OutputStreamWriter(second.getOutputStream(),
+          StandardCharsets.US_ASCII);
+      // CHANGE: several lines at once, and one split across writes
+      firstOut.write("snapshot\nclick 0 0\nsnap");
+      firstOut.flush();
+      String before = this.readLine(firstIn, served);
+      t.checkExpect(this.readLine(firstIn, served).matches("ok|won"), true);
+      firstOut.write("shot\n");
+      firstOut.flush();
+      String after = this.readLine(firstIn, served);
+      secondOut.write("key left\n");
+      secondOut.flush();
+      // AFTER: each player has a game of their own
+      t.checkExpect(served.sessions, 2);
+      t.checkExpect(before.length(), "board 4 4 ".length() + 32);
+      t.checkExpect(before.equals(after), false);
+      t.checkExpect(this.readLine(secondIn, served).matches("ok|won"), true);
+      // CHANGE: a line too long drops the player
+      secondOut.write(new String(new char[GameServer.LINE_LIMIT]).replace('\0', 'x'));
+      secondOut.flush();
+      // AFTER
+      t.checkExpect(this.readLine(secondIn, served), "error Line is too long.");
+      t.checkExpect(this.readLine(secondIn, served), null);
+      t.checkExpect(served.sessions, 1);
+      // and hanging up ends the game
+      first.close();
+      for (int i = 0; i < 10 && served.sessions > 0; i += 1) {
+        served.poll(10);
+      }
+      t.checkExpect(served.sessions, 0);
+      second.close();
+      served.close();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+import tester.*;
+
+// represents a generated board: its seed, its solution, and how many times
+// each of its tiles (in row-major order) is rotated clockwise away from it
+class GeneratedLevel {
+  long seed;
+  PackedBoard solved;
+  byte[] rotations;
+
+  GeneratedLevel(long seed, PackedBoard solved, byte[] rotations) {
+    this.seed = seed;
+    this.solved = solved;
+    this.rotations = rotations;
+  }
+
+  // returns the board as the player first sees it
+  PackedBoard scrambled() {
+    PackedBoard board = new PackedBoard(this.solved.width, this.solved.height);
+    for (int i = 0; i < board.tiles.length; i += 1) {
+      board.tiles[i] = this.solved.tiles[i];
+      for (int k = 0; k < this.rotations[i]; k += 1) {
+        board.rotate(i);
+      }
+    }
+    return board;
+  }
+}
+
+class ExamplesGeneratedLevel {
+  void testScrambled(Tester t) {
+    PackedBoard solved = new PackedBoard(3, 2);
+    solved.tiles = new byte[] { 12, 13, 9, 2, 2, 2 };
+    solved.setStation(0, true);
+    GeneratedLevel level = new GeneratedLevel(0, solved, new byte[] { 0, 1, 2, 3, 1, 2 });
+    PackedBoard scrambled = level.scrambled();
+    t.checkExpect(scrambled.tiles, new byte[] { 12 | PackedBoard.STATION, 11, 6, 1, 4, 8 });
+    // the solution itself is untouched:
+    t.checkExpect(solved.connections(1), 13);
+  }
+}
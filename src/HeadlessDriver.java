@@ -0,0 +1,364 @@
+import java.util.*;
+import tester.*;
+
+// drives a game without ever opening its window, through the moves a player
+// can make, and measures how quickly it handles a script of inputs: how many
+// per second, how long each took at the median and 99th percentile, and how
+// much each allocated
+// usage: java HeadlessDriver events [size ...]
+class HeadlessDriver {
+  PowerSupply game;
+
+  HeadlessDriver(PowerSupply game) {
+    this.game = game;
+  }
+
+  // drives a new game generated at the given size from the given seed
+  HeadlessDriver(int width, int height, long seed) {
+    this(new PowerSupply(width, height, seed, false));
+  }
+
+  // returns a driver of a game generated at the given size from the given
+  // seed, but left solved, so that every piece within reach of the station
+  // is lit
+  static HeadlessDriver solved(int width, int height, long seed) {
+    GeneratedLevel level = new BoardGenerator(width, height).generate(seed);
+    return new HeadlessDriver(new PowerSupply(
+        new GeneratedLevel(seed, level.solved, new byte[width * height]), new Random(seed)));
+  }
+
+  // runs every input script on square boards of every given size (or the
+  // benchmarks' sizes), each for the given number of events after warming up
+  // for as many, and prints what was measured
+  // NOTE: the adversarial script plays on a solved board, where the most is
+  // lit for its rotations to cut off
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      throw new IllegalArgumentException("Usage: HeadlessDriver events [size ...]");
+    }
+    int events = Integer.parseInt(args[0]);
+    int[] sizes = PowerSupplyBenchmarks.SIZES;
+    if (args.length > 1) {
+      sizes = new int[args.length - 1];
+      for (int i = 1; i < args.length; i += 1) {
+        sizes[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println(SimulationReport.HEADER);
+    for (int size : sizes) {
+      HeadlessDriver driver = new HeadlessDriver(size, size, PowerSupplyBenchmarks.SEED);
+      System.out.println(driver.run(new RandomInput(PowerSupplyBenchmarks.SEED), events,
+          events));
+      driver = HeadlessDriver.solved(size, size, PowerSupplyBenchmarks.SEED);
+      System.out.println(driver.run(new AdversarialInput(), events, events));
+    }
+  }
+
+  // EFFECT: rotates the piece at the given column and row clockwise
+  void rotate(int col, int row) {
+    if (col < 0 || col >= this.game.width || row < 0 || row >= this.game.height) {
+      throw new IllegalArgumentException("Column and row must be on the board.");
+    }
+    this.game.rotateAt(col, row);
+  }
+
+  // EFFECT: moves the power station along a connection in the given direction
+  // (0 = left, 1 = top, 2 = right, 3 = bottom), returning whether there was a
+  // connection to move along
+  boolean moveStation(int direction) {
+    if (direction < 0 || direction > 3) {
+      throw new IllegalArgumentException("Direction must be between 0 and 3.");
+    }
+    return this.game.moveStation(direction);
+  }
+
+  // EFFECT: advances the game's clock by one tick
+  void tick() {
+    this.game.onTick();
+  }
+
+  // is every piece of the game lit?
+  boolean won() {
+    return this.game.gameWon();
+  }
+
+  // returns how quickly the given script's events were handled, timing each
+  // of the given number of events after the given number to warm up
+  // EFFECT: makes every event of the script on this driver's game
+  SimulationReport run(InputScript script, int warmup, int events) {
+    long[] latencies = new long[events];
+    // every move is logged, so make room for them all up front:
+    this.game.moves.reserve(this.game.moves.cursor + warmup + events);
+    for (int i = 0; i < warmup; i += 1) {
+      script.play(this);
+    }
+    long overhead = PowerSupplyBenchmarks.allocatedBytes();
+    overhead = PowerSupplyBenchmarks.allocatedBytes() - overhead;
+    long allocatedBefore = PowerSupplyBenchmarks.allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < events; i += 1) {
+      long before = System.nanoTime();
+      script.play(this);
+      latencies[i] = System.nanoTime() - before;
+    }
+    long nanos = System.nanoTime() - start;
+    long bytes = PowerSupplyBenchmarks.allocatedBytes() - allocatedBefore - overhead;
+    Arrays.sort(latencies);
+    return new SimulationReport(script.name(), this.game.width, this.game.height, events,
+        nanos, bytes, percentile(latencies, 0.5), percentile(latencies, 0.99));
+  }
+
+  // returns the value at the given fraction of the way through the given
+  // sorted values, by nearest rank (0 if there are none)
+  static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+}
+
+// represents a script of the inputs a player might make, one at a time
+interface InputScript {
+  // returns the name this script is reported under
+  String name();
+
+  // EFFECT: makes the next input of this script on the given driver
+  void play(HeadlessDriver driver);
+}
+
+// plays like a player clicking around at random: rotates random pieces,
+// every so often moving the station in a random direction, with the clock
+// ticking along
+class RandomInput implements InputScript {
+  // how many events there are for every station move, and for every tick
+  static final int STATION_EVERY = 8;
+  static final int TICK_EVERY = 10;
+  SplittableRandom rand;
+  int count;
+
+  RandomInput(long seed) {
+    this.rand = new SplittableRandom(seed);
+    this.count = 0;
+  }
+
+  public String name() {
+    return "random";
+  }
+
+  public void play(HeadlessDriver driver) {
+    this.count += 1;
+    if (this.count % TICK_EVERY == 0) {
+      driver.tick();
+    }
+    else if (this.count % STATION_EVERY == 0) {
+      driver.moveStation(this.rand.nextInt(4));
+    }
+    else {
+      driver.rotate(this.rand.nextInt(driver.game.width), this.rand.nextInt(driver.game.height));
+    }
+  }
+}
+
+// plays to make power updates as costly as possible: always rotates the
+// station's own piece or one next to it, in turn, so that every rotation
+// cuts off or lights up as much of the lit tree as it can (which is the most
+// on a solved board)
+class AdversarialInput implements InputScript {
+  // which tile around the station is rotated next (4 for the station's own)
+  int next;
+
+  AdversarialInput() {
+    this.next = 4;
+  }
+
+  public String name() {
+    return "adversarial";
+  }
+
+  public void play(HeadlessDriver driver) {
+    PowerSupply game = driver.game;
+    int station = game.powerRow * game.width + game.powerCol;
+    int tile = station;
+    if (this.next < 4 && game.adjacentTo(station, this.next) >= 0) {
+      tile = game.adjacentTo(station, this.next);
+    }
+    driver.rotate(tile % game.width, tile / game.width);
+    this.next = (this.next + 1) % 5;
+  }
+}
+
+// represents how quickly a driver handled one script's events on one board
+class SimulationReport {
+  // the column headings matching each report's toString
+  static final String HEADER = String.format("%-12s %11s %10s %14s %10s %10s %12s", "script",
+      "size", "events", "events/s", "p50 ns", "p99 ns", "bytes/event");
+  String name;
+  int width;
+  int height;
+  int events;
+  long nanos;
+  long bytes;
+  // the median and 99th percentile time taken by one event, in nanoseconds
+  long p50;
+  long p99;
+
+  SimulationReport(String name, int width, int height, int events, long nanos, long bytes,
+      long p50, long p99) {
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.events = events;
+    this.nanos = nanos;
+    this.bytes = bytes;
+    this.p50 = p50;
+    this.p99 = p99;
+  }
+
+  // returns how many events were handled per second
+  double eventsPerSecond() {
+    return this.events * 1e9 / this.nanos;
+  }
+
+  // returns how many bytes each event allocated on average
+  double bytesPerEvent() {
+    return (double) this.bytes / this.events;
+  }
+
+  // returns this report as one row of a table under HEADER
+  public String toString() {
+    return String.format("%-12s %11s %10d %14.1f %10d %10d %12.1f", this.name,
+        this.width + "x" + this.height, this.events, this.eventsPerSecond(), this.p50, this.p99,
+        this.bytesPerEvent());
+  }
+}
+
+class ExamplesHeadlessDriver {
+  HeadlessDriver driver;
+  SimulationReport report = new SimulationReport("random", 30, 20, 4000, 2000000, 800, 300,
+      1200);
+
+  void init() {
+    this.driver = new HeadlessDriver(6, 5, 7);
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkExpect(this.driver.game.width, 6);
+    t.checkExpect(this.driver.game.height, 5);
+    // the same seed always gives the same game:
+    t.checkExpect(this.driver.game.pack(), new PowerSupply(6, 5, new Random(7)).pack());
+  }
+
+  void testRotate(Tester t) {
+    this.init();
+    int mask = this.driver.game.pieceAt(8).mask();
+    // CHANGE
+    this.driver.rotate(2, 1);
+    // AFTER
+    t.checkExpect(this.driver.game.pieceAt(8).mask(), (int) PackedBoard.ROTATED[mask]);
+    t.checkExpect(this.driver.game.moves.size, 1);
+    t.checkException(new IllegalArgumentException("Column and row must be on the board."),
+        this.driver, "rotate", 6, 0);
+    t.checkException(new IllegalArgumentException("Column and row must be on the board."),
+        this.driver, "rotate", 0, -1);
+  }
+
+  void testMoveStation(Tester t) {
+    this.init();
+    // nowhere to move from the top left corner, up or left:
+    t.checkExpect(this.driver.moveStation(0), false);
+    t.checkExpect(this.driver.moveStation(1), false);
+    t.checkExpect(this.driver.game.moves.size, 0);
+    t.checkException(new IllegalArgumentException("Direction must be between 0 and 3."),
+        this.driver, "moveStation", 4);
+  }
+
+  void testTickAndWon(Tester t) {
+    this.init();
+    this.driver.tick();
+    this.driver.tick();
+    t.checkExpect(this.driver.game.tickNum, 2);
+    t.checkExpect(this.driver.won(), this.driver.game.gameWon());
+  }
+
+  void testRun(Tester t) {
+    this.init();
+    // CHANGE
+    SimulationReport measured = this.driver.run(new RandomInput(3), 100, 500);
+    // AFTER
+    t.checkExpect(measured.name, "random");
+    t.checkExpect(measured.width, 6);
+    t.checkExpect(measured.events, 500);
+    t.checkExpect(measured.p50 <= measured.p99, true);
+    t.checkExpect(measured.nanos > 0, true);
+    // every tenth event is a tick rather than a move:
+    t.checkExpect(this.driver.game.tickNum, 60);
+  }
+
+  void testSolved(Tester t) {
+    HeadlessDriver solved = HeadlessDriver.solved(6, 5, 7);
+    PackedBoard board = new BoardGenerator(6, 5).generate(7).solved;
+    boolean same = true;
+    for (int i = 0; i < 30; i += 1) {
+      same = same && solved.game.pieceAt(i).mask() == board.connections(i);
+    }
+    t.checkExpect(same, true);
+    // so from the center of the tree, power reaches every piece:
+    solved.game.moveStationToCenter();
+    solved.game.sendPower(solved.game.powerCol, solved.game.powerRow, solved.game.radius);
+    t.checkExpect(solved.won(), true);
+  }
+
+  void testRandomInput(Tester t) {
+    this.init();
+    HeadlessDriver other = new HeadlessDriver(6, 5, 7);
+    InputScript script = new RandomInput(5);
+    InputScript same = new RandomInput(5);
+    for (int i = 0; i < 200; i += 1) {
+      script.play(this.driver);
+      same.play(other);
+    }
+    // the same seed always plays the same inputs:
+    t.checkExpect(this.driver.game.pack(), other.game.pack());
+    t.checkExpect(this.driver.game.tickNum, 20);
+    t.checkExpect(this.driver.game.moves.size > 150, true);
+  }
+
+  void testAdversarialInput(Tester t) {
+    this.init();
+    AdversarialInput script = new AdversarialInput();
+    // CHANGE: the station's own piece first
+    int mask = this.driver.game.pieceAt(0).mask();
+    script.play(this.driver);
+    // AFTER
+    t.checkExpect(this.driver.game.pieceAt(0).mask(), (int) PackedBoard.ROTATED[mask]);
+    t.checkExpect(this.driver.game.moves.tiles[0], 0);
+    // CHANGE: then around it, skipping sides off the board
+    script.play(this.driver);
+    script.play(this.driver);
+    script.play(this.driver);
+    // AFTER: left and top are off the board, so the station's own again, then right
+    t.checkExpect(this.driver.game.moves.tiles[1], 0);
+    t.checkExpect(this.driver.game.moves.tiles[2], 0);
+    t.checkExpect(this.driver.game.moves.tiles[3], 1);
+  }
+
+  void testPercentile(Tester t) {
+    long[] sorted = new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+    t.checkExpect(HeadlessDriver.percentile(sorted, 0.5), 5L);
+    t.checkExpect(HeadlessDriver.percentile(sorted, 0.99), 10L);
+    t.checkExpect(HeadlessDriver.percentile(sorted, 0.0), 1L);
+    t.checkExpect(HeadlessDriver.percentile(new long[] { 7 }, 0.99), 7L);
+    t.checkExpect(HeadlessDriver.percentile(new long[0], 0.5), 0L);
+  }
+
+  void testReport(Tester t) {
+    t.checkInexact(this.report.eventsPerSecond(), 2000000.0, 0.001);
+    t.checkInexact(this.report.bytesPerEvent(), 0.2, 0.001);
+    t.checkExpect(this.report.toString(), String.format(
+        "%-12s %11s %10d %14.1f %10d %10d %12.1f", "random", "30x20", 4000, 2000000.0, 300,
+        1200, 0.2));
+  }
+}
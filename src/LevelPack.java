@@ -0,0 +1,595 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import tester.*;
+
+// represents a pack of generated boards stored in buffers, usually a file
+// mapped into memory, laid out as:
+// - a header: the magic number, the format version and the number of boards
+// - an index: the offset of every board's record from the start of the pack,
+//   as an 8-byte number
+// - a record per board: its seed, width, height and the row-major index of
+//   its power station, then its solved connections at 4 bits per tile (low
+//   bits first), then its scramble rotations at 2 bits per tile
+// NOTE: boards are only decoded when asked for, so opening a pack costs the
+// same however many boards it holds, and any one board is found through the
+// index without reading the others
+// NOTE: a pack has no size limit but the int count of its boards, since a
+// buffer holds at most 2 GB: it is written out a record at a time, and
+// mapped in windows of 2^WINDOW_SHIFT bytes, which a record or number may
+// straddle
+class LevelPack {
+  // "PSLP", marking a buffer as a level pack
+  static final int MAGIC = 0x50534c50;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 12;
+  // the bytes taken by a record's seed, width, height and station
+  static final int RECORD_HEADER_BYTES = 20;
+  // the log2 of the bytes of a pack mapped by each window when opened
+  static final int WINDOW_SHIFT = 30;
+  // the bytes a pack is written through at a time, and the most boards
+  // generated at a time while writing a pack of them
+  static final int WRITE_BUFFER_BYTES = 1 << 16;
+  static final int GENERATE_CHUNK = 1024;
+  // the buffers holding this pack, each but the last exactly 2^shift bytes,
+  // and how many bytes they hold in all
+  ByteBuffer[] windows;
+  int shift;
+  long length;
+  int count;
+
+  LevelPack(ByteBuffer data) {
+    this(new ByteBuffer[] { data }, 31);
+  }
+
+  LevelPack(ByteBuffer[] windows, int shift) {
+    this.windows = windows;
+    this.shift = shift;
+    this.length = 0;
+    for (int k = 0; k < windows.length; k += 1) {
+      this.length += windows[k].limit();
+    }
+    if (this.length < HEADER_BYTES || this.getInt(0) != MAGIC) {
+      throw new IllegalArgumentException("Not a level pack.");
+    }
+    if (this.getInt(4) != VERSION) {
+      throw new IllegalArgumentException("Unsupported level pack version.");
+    }
+    this.count = this.getInt(8);
+  }
+
+  // writes a pack of generated boards to a file
+  // usage: java LevelPack file width height count seed
+  public static void main(String[] args) throws IOException {
+    if (args.length != 5) {
+      throw new IllegalArgumentException("Usage: LevelPack file width height count seed");
+    }
+    writeGenerated(new File(args[0]), new BoardGenerator(Integer.parseInt(args[1]),
+        Integer.parseInt(args[2])), Integer.parseInt(args[3]), Long.parseLong(args[4]),
+        ForkJoinPool.commonPool());
+  }
+
+  // returns the level pack in the given file, mapped into memory rather than
+  // read
+  static LevelPack open(File file) throws IOException {
+    return open(file, WINDOW_SHIFT);
+  }
+
+  // returns the level pack in the given file, mapped into memory in windows
+  // of 2^shift bytes (at most 2^30)
+  static LevelPack open(File file, int shift) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long window = 1L << shift;
+      ByteBuffer[] windows = new ByteBuffer[(int) Math.max(1, (size + window - 1) / window)];
+      for (int k = 0; k < windows.length; k += 1) {
+        long start = k * window;
+        windows[k] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(window, size - start));
+      }
+      return new LevelPack(windows, shift);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  // EFFECT: writes a level pack of the given boards to the given file
+  static void write(File file, GeneratedLevel[] levels) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      LevelPackWriter writer = new LevelPackWriter(out.getChannel(), WRITE_BUFFER_BYTES);
+      writer.header(levels.length);
+      long offset = HEADER_BYTES + 8L * levels.length;
+      for (int n = 0; n < levels.length; n += 1) {
+        writer.offset(offset);
+        offset += recordBytes(levels[n].solved.tiles.length);
+      }
+      for (int n = 0; n < levels.length; n += 1) {
+        writer.level(levels[n]);
+      }
+      writer.flush();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // EFFECT: writes a level pack of the given number of boards, generated by
+  // the given generator in parallel on the given pool from the given seed,
+  // to the given file
+  // NOTE: every board is the same size, so the index is known before any of
+  // them are generated, and only GENERATE_CHUNK boards are held at a time
+  static void writeGenerated(File file, BoardGenerator generator, int count, long batchSeed,
+      ForkJoinPool pool) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      LevelPackWriter writer = new LevelPackWriter(out.getChannel(), WRITE_BUFFER_BYTES);
+      writer.header(count);
+      long first = HEADER_BYTES + 8L * count;
+      long record = recordBytes(generator.width * generator.height);
+      for (int n = 0; n < count; n += 1) {
+        writer.offset(first + n * record);
+      }
+      for (int lo = 0; lo < count; lo += GENERATE_CHUNK) {
+        GeneratedLevel[] levels = generator.generateRange(batchSeed, lo,
+            Math.min(count, lo + GENERATE_CHUNK), pool);
+        for (int n = 0; n < levels.length; n += 1) {
+          writer.level(levels[n]);
+        }
+      }
+      writer.flush();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // returns a level pack of the given boards, ready to be read from the start
+  // NOTE: the whole pack is built in one buffer, so this is only for packs
+  // small enough to hold in memory; write streams a pack of any size
+  static ByteBuffer encode(GeneratedLevel[] levels) {
+    long size = HEADER_BYTES + 8L * levels.length;
+    for (int n = 0; n < levels.length; n += 1) {
+      size += recordBytes(levels[n].solved.tiles.length);
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Levels are too large to pack.");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(levels.length);
+    long offset = HEADER_BYTES + 8L * levels.length;
+    for (int n = 0; n < levels.length; n += 1) {
+      buffer.putLong(offset);
+      offset += recordBytes(levels[n].solved.tiles.length);
+    }
+    for (int n = 0; n < levels.length; n += 1) {
+      encodeLevel(buffer, levels[n]);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  // returns how many bytes the record of a board with the given number of
+  // tiles takes
+  static long recordBytes(int tiles) {
+    return RECORD_HEADER_BYTES + (tiles + 1L) / 2 + (tiles + 3L) / 4;
+  }
+
+  // EFFECT: appends the record of the given board to the given buffer
+  static void encodeLevel(ByteBuffer buffer, GeneratedLevel level) {
+    PackedBoard solved = level.solved;
+    int station = -1;
+    for (int i = 0; i < solved.tiles.length; i += 1) {
+      if (solved.hasStation(i)) {
+        station = i;
+      }
+    }
+    buffer.putLong(level.seed);
+    buffer.putInt(solved.width);
+    buffer.putInt(solved.height);
+    buffer.putInt(station);
+    for (int i = 0; i < solved.tiles.length; i += 2) {
+      int pair = solved.connections(i);
+      if (i + 1 < solved.tiles.length) {
+        pair |= solved.connections(i + 1) << 4;
+      }
+      buffer.put((byte) pair);
+    }
+    for (int i = 0; i < solved.tiles.length; i += 4) {
+      int quad = 0;
+      for (int k = 0; k < 4 && i + k < solved.tiles.length; k += 1) {
+        quad |= (level.rotations[i + k] & 3) << (k * 2);
+      }
+      buffer.put((byte) quad);
+    }
+  }
+
+  // returns how many boards are in this pack
+  int size() {
+    return this.count;
+  }
+
+  // returns the byte at the given position in this pack
+  byte get(long at) {
+    return this.windows[(int) (at >>> this.shift)].get((int) (at & ((1L << this.shift) - 1)));
+  }
+
+  // returns the big-endian number in the given number of bytes at the given
+  // position in this pack, read a byte at a time in case it straddles two
+  // windows
+  long getNumber(long at, int bytes) {
+    long number = 0;
+    for (int k = 0; k < bytes; k += 1) {
+      number = (number << 8) | (this.get(at + k) & 0xff);
+    }
+    return number;
+  }
+
+  // returns the int at the given position in this pack
+  int getInt(long at) {
+    return (int) this.getNumber(at, 4);
+  }
+
+  // returns the long at the given position in this pack
+  long getLong(long at) {
+    return this.getNumber(at, 8);
+  }
+
+  // returns the offset of the nth board's record from the start of this pack
+  long offsetOf(int n) {
+    if (n < 0 || n >= this.count) {
+      throw new IllegalArgumentException("No level " + n + " in this pack.");
+    }
+    return this.getLong(HEADER_BYTES + 8L * n);
+  }
+
+  // returns the nth board in this pack
+  GeneratedLevel level(int n) {
+    long at = this.offsetOf(n);
+    long seed = this.getLong(at);
+    int width = this.getInt(at + 8);
+    int height = this.getInt(at + 12);
+    int station = this.getInt(at + 16);
+    PackedBoard solved = new PackedBoard(width, height);
+    byte[] rotations = new byte[solved.tiles.length];
+    long nibbles = at + RECORD_HEADER_BYTES;
+    long quads = nibbles + (solved.tiles.length + 1L) / 2;
+    for (int i = 0; i < solved.tiles.length; i += 1) {
+      solved.setConnections(i, this.get(nibbles + i / 2) >> ((i % 2) * 4));
+      rotations[i] = (byte) ((this.get(quads + i / 4) >> ((i % 4) * 2)) & 3);
+    }
+    if (station >= 0) {
+      solved.setStation(station, true);
+    }
+    return new GeneratedLevel(seed, solved, rotations);
+  }
+
+  // returns whether each board in this pack can be solved from its scramble,
+  // solving the boards in parallel across the given pool
+  boolean[] validate(ForkJoinPool pool) {
+    boolean[] valid = new boolean[this.count];
+    pool.invoke(new ValidateTask(this, valid, 0, this.count));
+    return valid;
+  }
+}
+
+// represents a level pack being written to a channel through one buffer,
+// which is written out whenever the next piece of the pack will not fit, so
+// writing a pack never holds more than a buffer or a record of it in memory
+class LevelPackWriter {
+  WritableByteChannel channel;
+  ByteBuffer buffer;
+
+  LevelPackWriter(WritableByteChannel channel, int bufferBytes) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferBytes);
+  }
+
+  // EFFECT: writes the header of a pack of the given number of boards
+  void header(int count) throws IOException {
+    this.reserve(LevelPack.HEADER_BYTES);
+    this.buffer.putInt(LevelPack.MAGIC);
+    this.buffer.putInt(LevelPack.VERSION);
+    this.buffer.putInt(count);
+  }
+
+  // EFFECT: writes the next entry of the index
+  void offset(long offset) throws IOException {
+    this.reserve(8);
+    this.buffer.putLong(offset);
+  }
+
+  // EFFECT: writes the record of the given board
+  void level(GeneratedLevel level) throws IOException {
+    this.reserve((int) LevelPack.recordBytes(level.solved.tiles.length));
+    LevelPack.encodeLevel(this.buffer, level);
+  }
+
+  // EFFECT: makes room in the buffer for the given number of bytes, writing
+  // out what it holds if they do not fit, and growing it if they never would
+  void reserve(int bytes) throws IOException {
+    if (this.buffer.remaining() < bytes) {
+      this.flush();
+    }
+    if (this.buffer.capacity() < bytes) {
+      this.buffer = ByteBuffer.allocate(bytes);
+    }
+  }
+
+  // EFFECT: writes out everything in the buffer, however many writes the
+  // channel takes to accept it
+  void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+}
+
+// represents solving some of the boards of a level pack, splitting them in
+// half until each task has just one
+// NOTE: boards are split down to one each rather than in batches because
+// how long a board takes to solve varies far more than how long it takes to
+// generate
+class ValidateTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  LevelPack pack;
+  boolean[] valid;
+  int lo;
+  int hi;
+
+  ValidateTask(LevelPack pack, boolean[] valid, int lo, int hi) {
+    this.pack = pack;
+    this.valid = valid;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // EFFECT: records whether the boards at positions lo (inclusive) to hi
+  // (exclusive) of the pack can be solved
+  protected void compute() {
+    if (this.hi - this.lo <= 1) {
+      for (int i = this.lo; i < this.hi; i += 1) {
+        this.valid[i] = new BoardSolver(this.pack.level(i).scrambled()).solve() != null;
+      }
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new ValidateTask(this.pack, this.valid, this.lo, mid),
+          new ValidateTask(this.pack, this.valid, mid, this.hi));
+    }
+  }
+}
+
+class ExamplesLevelPack {
+  GeneratedLevel small;
+  GeneratedLevel[] levels;
+
+  void init() {
+    // a 3x1 row of pipes, with the station in the middle
+    PackedBoard solved = new PackedBoard(3, 1);
+    solved.tiles = new byte[] { 4, 5, 1 };
+    solved.setStation(1, true);
+    this.small = new GeneratedLevel(-7, solved, new byte[] { 3, 0, 2 });
+    this.levels = new BoardGenerator(5, 3).generateAll(4, 6, ForkJoinPool.commonPool());
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkConstructorException(new IllegalArgumentException("Not a level pack."), "LevelPack",
+        ByteBuffer.allocate(4));
+    t.checkConstructorException(new IllegalArgumentException("Not a level pack."), "LevelPack",
+        ByteBuffer.allocate(12));
+    ByteBuffer future = LevelPack.encode(this.levels);
+    future.putInt(4, 2);
+    t.checkConstructorException(new IllegalArgumentException("Unsupported level pack version."),
+        "LevelPack", future);
+    t.checkExpect(new LevelPack(LevelPack.encode(this.levels)).size(), 6);
+  }
+
+  void testRecordBytes(Tester t) {
+    t.checkExpect(LevelPack.recordBytes(1), 22L);
+    t.checkExpect(LevelPack.recordBytes(3), 23L);
+    t.checkExpect(LevelPack.recordBytes(15), 32L);
+    // 6 bits a tile for a 100x100 board:
+    t.checkExpect(LevelPack.recordBytes(10000), 7520L);
+    // and no overflow for the biggest board there is:
+    t.checkExpect(LevelPack.recordBytes(Integer.MAX_VALUE), 20L + (1L << 30) + (1L << 29));
+  }
+
+  void testEncode(Tester t) {
+    this.init();
+    ByteBuffer buffer = LevelPack.encode(new GeneratedLevel[] { this.small, this.small });
+    t.checkExpect(buffer.limit(), 12 + 16 + 23 * 2);
+    t.checkExpect(buffer.getInt(0), LevelPack.MAGIC);
+    t.checkExpect(buffer.getInt(4), LevelPack.VERSION);
+    t.checkExpect(buffer.getInt(8), 2);
+    t.checkExpect(buffer.getLong(12), 28L);
+    t.checkExpect(buffer.getLong(20), 51L);
+  }
+
+  void testEncodeLevel(Tester t) {
+    this.init();
+    ByteBuffer buffer = ByteBuffer.allocate(23);
+    LevelPack.encodeLevel(buffer, this.small);
+    t.checkExpect(buffer.position(), 23);
+    t.checkExpect(buffer.getLong(0), -7L);
+    t.checkExpect(buffer.getInt(8), 3);
+    t.checkExpect(buffer.getInt(12), 1);
+    t.checkExpect(buffer.getInt(16), 1);
+    t.checkExpect(buffer.get(20), (byte) 0x54);
+    t.checkExpect(buffer.get(21), (byte) 0x01);
+    t.checkExpect(buffer.get(22), (byte) 0x23);
+  }
+
+  void testOffsetOf(Tester t) {
+    this.init();
+    LevelPack pack = new LevelPack(LevelPack.encode(this.levels));
+    t.checkExpect(pack.offsetOf(0), 12L + 8 * 6);
+    t.checkExpect(pack.offsetOf(2), 12L + 8 * 6 + 2 * LevelPack.recordBytes(15));
+    t.checkException(new IllegalArgumentException("No level 6 in this pack."), pack, "offsetOf",
+        6);
+    t.checkException(new IllegalArgumentException("No level -1 in this pack."), pack,
+        "offsetOf", -1);
+  }
+
+  void testLevel(Tester t) {
+    this.init();
+    LevelPack pack = new LevelPack(LevelPack.encode(this.levels));
+    for (int n = 0; n < this.levels.length; n += 1) {
+      t.checkExpect(pack.level(n), this.levels[n]);
+    }
+    t.checkExpect(new LevelPack(LevelPack.encode(new GeneratedLevel[] { this.small })).level(0),
+        this.small);
+  }
+
+  void testValidate(Tester t) {
+    this.init();
+    ForkJoinPool four = new ForkJoinPool(4);
+    t.checkExpect(new LevelPack(LevelPack.encode(this.levels)).validate(four),
+        new boolean[] { true, true, true, true, true, true });
+    // a board whose solution is a square loop can't be solved:
+    PackedBoard loop = new PackedBoard(2, 2);
+    loop.tiles = new byte[] { 12, 9, 6, 3 };
+    GeneratedLevel unsolvable = new GeneratedLevel(0, loop, new byte[4]);
+    t.checkExpect(new LevelPack(LevelPack.encode(new GeneratedLevel[] { this.small,
+        unsolvable, this.levels[0] })).validate(four), new boolean[] { true, false, true });
+    t.checkExpect(new LevelPack(LevelPack.encode(new GeneratedLevel[0])).validate(four),
+        new boolean[0]);
+    four.shutdown();
+  }
+
+  void testWriteAndOpen(Tester t) {
+    this.init();
+    try {
+      File file = File.createTempFile("levels", ".pack");
+      file.deleteOnExit();
+      LevelPack.write(file, this.levels);
+      t.checkExpect(file.length(), 12L + 8 * 6 + 6 * LevelPack.recordBytes(15));
+      LevelPack pack = LevelPack.open(file);
+      t.checkExpect(pack.windows.length, 1);
+      t.checkExpect(pack.windows[0].isDirect(), true);
+      t.checkExpect(pack.size(), 6);
+      t.checkExpect(pack.level(5), this.levels[5]);
+      t.checkExpect(pack.level(0).scrambled(), this.levels[0].scrambled());
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  void testOpenInWindows(Tester t) {
+    this.init();
+    try {
+      File file = File.createTempFile("levels", ".pack");
+      file.deleteOnExit();
+      LevelPack.write(file, this.levels);
+      // 16-byte windows, which every record and many numbers straddle:
+      LevelPack pack = LevelPack.open(file, 4);
+      t.checkExpect(pack.windows.length, (int) ((file.length() + 15) / 16));
+      t.checkExpect(pack.length, file.length());
+      t.checkExpect(pack.size(), 6);
+      for (int n = 0; n < this.levels.length; n += 1) {
+        t.checkExpect(pack.level(n), this.levels[n]);
+      }
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  void testWriteGenerated(Tester t) {
+    this.init();
+    try {
+      File file = File.createTempFile("levels", ".pack");
+      file.deleteOnExit();
+      // more boards than are generated at a time:
+      int count = LevelPack.GENERATE_CHUNK + 3;
+      LevelPack.writeGenerated(file, new BoardGenerator(5, 3), count, 4,
+          ForkJoinPool.commonPool());
+      t.checkExpect(file.length(), 12L + 8L * count + count * LevelPack.recordBytes(15));
+      LevelPack pack = LevelPack.open(file);
+      t.checkExpect(pack.size(), count);
+      t.checkExpect(pack.level(5), this.levels[5]);
+      t.checkExpect(pack.level(count - 1),
+          new BoardGenerator(5, 3).generate(BoardGenerator.seedFor(4, count - 1)));
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  void testGetNumber(Tester t) {
+    ByteBuffer first = ByteBuffer.allocate(8);
+    first.putInt(LevelPack.MAGIC).putInt(LevelPack.VERSION);
+    ByteBuffer second = ByteBuffer.allocate(8);
+    second.putInt(0).putInt(0x01020304);
+    LevelPack pack = new LevelPack(new ByteBuffer[] { first, second }, 3);
+    t.checkExpect(pack.length, 16L);
+    t.checkExpect(pack.get(15), (byte) 4);
+    t.checkExpect(pack.getInt(12), 0x01020304);
+    // across the two windows:
+    t.checkExpect(pack.getInt(6), 1 << 16);
+    t.checkExpect(pack.getLong(4), 1L << 32);
+  }
+
+  void testLevelPackWriter(Tester t) {
+    this.init();
+    try {
+      TrickleChannel channel = new TrickleChannel(3);
+      // a buffer smaller than a record, written out 3 bytes a write:
+      LevelPackWriter writer = new LevelPackWriter(channel, 8);
+      writer.header(2);
+      writer.offset(28);
+      writer.offset(51);
+      writer.level(this.small);
+      writer.level(this.small);
+      writer.flush();
+      t.checkExpect(channel.bytes.toByteArray(),
+          LevelPack.encode(new GeneratedLevel[] { this.small, this.small }).array());
+      t.checkExpect(channel.writes > 74 / 3, true);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+}
+
+// represents a channel that takes at most a few bytes a write, keeping them
+// all, for testing that writers keep writing until everything is taken
+class TrickleChannel implements WritableByteChannel {
+  int most;
+  int writes;
+  ByteArrayOutputStream bytes;
+
+  TrickleChannel(int most) {
+    this.most = most;
+    this.writes = 0;
+    this.bytes = new ByteArrayOutputStream();
+  }
+
+  // takes at most this channel's few bytes from the given buffer
+  public int write(ByteBuffer src) {
+    int taken = Math.min(this.most, src.remaining());
+    for (int i = 0; i < taken; i += 1) {
+      this.bytes.write(src.get());
+    }
+    this.writes += 1;
+    return taken;
+  }
+
+  public boolean isOpen() {
+    return true;
+  }
+
+  public void close() {
+    // nothing to release
+  }
+}
@@ -0,0 +1,148 @@
+import java.util.*;
+import tester.*;
+
+// represents every move made in a game, in order, as parallel arrays of the
+// tile each move was made at, what the move was, and the tick it was made on,
+// with a cursor separating the moves in effect from those undone (which can
+// be redone until a new move is made)
+// NOTE: moves are stored as primitives, so recording one allocates nothing
+// until the arrays must grow, and they can be reserved up front
+class MoveLog {
+  // a tile was rotated clockwise
+  static final int ROTATE = 0;
+  // the power station moved off a tile, in direction (action - STATION)
+  // (0 = left, 1 = top, 2 = right, 3 = bottom)
+  static final int STATION = 1;
+  int[] tiles;
+  byte[] actions;
+  int[] ticks;
+  // how many moves are recorded, and how many of them are in effect
+  int size;
+  int cursor;
+
+  MoveLog(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be a positive value.");
+    }
+    this.tiles = new int[capacity];
+    this.actions = new byte[capacity];
+    this.ticks = new int[capacity];
+    this.size = 0;
+    this.cursor = 0;
+  }
+
+  // EFFECT: records the given move after the last in effect, forgetting any
+  // undone moves after it
+  void record(int tile, int action, int tick) {
+    if (this.cursor == this.tiles.length) {
+      this.reserve(this.tiles.length * 2);
+    }
+    this.tiles[this.cursor] = tile;
+    this.actions[this.cursor] = (byte) action;
+    this.ticks[this.cursor] = tick;
+    this.cursor += 1;
+    this.size = this.cursor;
+  }
+
+  // EFFECT: makes room for at least the given number of moves in all
+  void reserve(int capacity) {
+    if (capacity > this.tiles.length) {
+      this.tiles = Arrays.copyOf(this.tiles, capacity);
+      this.actions = Arrays.copyOf(this.actions, capacity);
+      this.ticks = Arrays.copyOf(this.ticks, capacity);
+    }
+  }
+
+  // EFFECT: forgets every move, keeping the room made for them
+  void clear() {
+    this.size = 0;
+    this.cursor = 0;
+  }
+
+  // is there a move in effect to undo?
+  boolean canUndo() {
+    return this.cursor > 0;
+  }
+
+  // is there an undone move to redo?
+  boolean canRedo() {
+    return this.cursor < this.size;
+  }
+}
+
+class ExamplesMoveLog {
+  MoveLog log;
+
+  void init() {
+    this.log = new MoveLog(2);
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkExpect(this.log.tiles.length, 2);
+    t.checkExpect(this.log.size, 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("Capacity must be a positive value."), "MoveLog", 0);
+  }
+
+  void testRecord(Tester t) {
+    this.init();
+    // CHANGE
+    this.log.record(5, MoveLog.ROTATE, 0);
+    this.log.record(7, MoveLog.STATION + 3, 2);
+    this.log.record(9, MoveLog.ROTATE, 4);
+    // AFTER: the arrays grew to make room
+    t.checkExpect(this.log.tiles.length, 4);
+    t.checkExpect(this.log.size, 3);
+    t.checkExpect(this.log.cursor, 3);
+    t.checkExpect(Arrays.copyOf(this.log.tiles, 3), new int[] { 5, 7, 9 });
+    t.checkExpect(Arrays.copyOf(this.log.actions, 3), new byte[] { 0, 4, 0 });
+    t.checkExpect(Arrays.copyOf(this.log.ticks, 3), new int[] { 0, 2, 4 });
+    // CHANGE: a move after undoing two forgets them
+    this.log.cursor = 1;
+    this.log.record(11, MoveLog.ROTATE, 6);
+    // AFTER
+    t.checkExpect(this.log.size, 2);
+    t.checkExpect(this.log.tiles[1], 11);
+    t.checkExpect(this.log.canRedo(), false);
+  }
+
+  void testReserve(Tester t) {
+    this.init();
+    this.log.record(5, MoveLog.ROTATE, 0);
+    this.log.reserve(100);
+    t.checkExpect(this.log.tiles.length, 100);
+    t.checkExpect(this.log.actions.length, 100);
+    t.checkExpect(this.log.ticks.length, 100);
+    t.checkExpect(this.log.tiles[0], 5);
+    // never shrinks:
+    this.log.reserve(10);
+    t.checkExpect(this.log.tiles.length, 100);
+  }
+
+  void testClear(Tester t) {
+    this.init();
+    this.log.record(5, MoveLog.ROTATE, 0);
+    this.log.record(6, MoveLog.ROTATE, 0);
+    this.log.record(7, MoveLog.ROTATE, 0);
+    this.log.cursor = 2;
+    // CHANGE
+    this.log.clear();
+    // AFTER
+    t.checkExpect(this.log.size, 0);
+    t.checkExpect(this.log.canUndo(), false);
+    t.checkExpect(this.log.canRedo(), false);
+    t.checkExpect(this.log.tiles.length, 4);
+  }
+
+  void testCanUndoAndRedo(Tester t) {
+    this.init();
+    t.checkExpect(this.log.canUndo(), false);
+    t.checkExpect(this.log.canRedo(), false);
+    this.log.record(5, MoveLog.ROTATE, 0);
+    t.checkExpect(this.log.canUndo(), true);
+    this.log.cursor = 0;
+    t.checkExpect(this.log.canUndo(), false);
+    t.checkExpect(this.log.canRedo(), true);
+  }
+}
@@ -0,0 +1,265 @@
+import tester.*;
+
+// represents a board of tiles packed one byte per tile, in row-major order:
+// the low four bits of a tile are its connections, and the next two say
+// whether it is lit and whether the power station is on it
+class PackedBoard {
+  // the connection bits, in the clockwise order tiles rotate through,
+  // so the connection in direction d (0 = left, 1 = top, 2 = right,
+  // 3 = bottom) is the bit 1 << d
+  static final int LEFT = 1;
+  static final int TOP = 2;
+  static final int RIGHT = 4;
+  static final int BOTTOM = 8;
+  static final int CONNECTIONS = 15;
+  static final int LIT = 16;
+  static final int STATION = 32;
+  // the connections of a tile after rotating 90 degrees clockwise,
+  // indexed by its connections before
+  static final byte[] ROTATED = new byte[16];
+
+  static {
+    for (int mask = 0; mask < 16; mask += 1) {
+      ROTATED[mask] = (byte) (((mask << 1) | (mask >> 3)) & CONNECTIONS);
+    }
+  }
+
+  int width;
+  int height;
+  byte[] tiles;
+
+  PackedBoard(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive values.");
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Board is too large to pack.");
+    }
+    this.width = width;
+    this.height = height;
+    this.tiles = new byte[width * height];
+  }
+
+  // returns the connection bit facing the opposite way from the given one
+  static int opposite(int bit) {
+    return ((bit << 2) | (bit >> 2)) & CONNECTIONS;
+  }
+
+  // returns the connections of the tile at the given index
+  int connections(int index) {
+    return this.tiles[index] & CONNECTIONS;
+  }
+
+  // EFFECT: sets the connections of the tile at the given index, keeping its
+  // lit and station bits
+  void setConnections(int index, int mask) {
+    this.tiles[index] = (byte) ((this.tiles[index] & ~CONNECTIONS) | (mask & CONNECTIONS));
+  }
+
+  // EFFECT: rotates the tile at the given index 90 degrees clockwise
+  void rotate(int index) {
+    this.setConnections(index, ROTATED[this.tiles[index] & CONNECTIONS]);
+  }
+
+  // is the tile at the given index receiving power?
+  boolean isLit(int index) {
+    return (this.tiles[index] & LIT) != 0;
+  }
+
+  // EFFECT: marks whether the tile at the given index is receiving power
+  void setLit(int index, boolean lit) {
+    this.setFlag(index, LIT, lit);
+  }
+
+  // is the power station on the tile at the given index?
+  boolean hasStation(int index) {
+    return (this.tiles[index] & STATION) != 0;
+  }
+
+  // EFFECT: marks whether the power station is on the tile at the given index
+  void setStation(int index, boolean station) {
+    this.setFlag(index, STATION, station);
+  }
+
+  // EFFECT: sets or clears the given bit of the tile at the given index
+  void setFlag(int index, int bit, boolean on) {
+    if (on) {
+      this.tiles[index] = (byte) (this.tiles[index] | bit);
+    }
+    else {
+      this.tiles[index] = (byte) (this.tiles[index] & ~bit);
+    }
+  }
+
+  // returns the index of the tile next to the tile at the given index in the
+  // given direction, or -1 if that is off the board
+  int adjacentTo(int index, int direction) {
+    int c = index % this.width;
+    if (direction == 0) {
+      return c > 0 ? index - 1 : -1;
+    }
+    else if (direction == 1) {
+      return index >= this.width ? index - this.width : -1;
+    }
+    else if (direction == 2) {
+      return c < this.width - 1 ? index + 1 : -1;
+    }
+    else {
+      return index < this.tiles.length - this.width ? index + this.width : -1;
+    }
+  }
+
+  // do the tile at the given index and its neighbour in the given direction
+  // both have a connection facing each other?
+  boolean connects(int index, int direction) {
+    int next = this.adjacentTo(index, direction);
+    return next >= 0 && (this.tiles[index] & (1 << direction)) != 0
+        && (this.tiles[next] & opposite(1 << direction)) != 0;
+  }
+
+  // is this board a spanning tree, i.e., does every tile connect to every
+  // other, with no connections left open or forming a cycle?
+  boolean isSpanningTree() {
+    int bits = 0;
+    for (int i = 0; i < this.tiles.length; i += 1) {
+      bits += Integer.bitCount(this.connections(i));
+    }
+    boolean[] seen = new boolean[this.tiles.length];
+    int[] worklist = new int[this.tiles.length];
+    int size = 1;
+    seen[0] = true;
+    int reached = 0;
+    while (size > 0) {
+      size -= 1;
+      int next = worklist[size];
+      reached += 1;
+      for (int dir = 0; dir < 4; dir += 1) {
+        if (this.connects(next, dir) && !seen[this.adjacentTo(next, dir)]) {
+          seen[this.adjacentTo(next, dir)] = true;
+          worklist[size] = this.adjacentTo(next, dir);
+          size += 1;
+        }
+      }
+    }
+    return reached == this.tiles.length && bits == 2 * (this.tiles.length - 1);
+  }
+}
+
+class ExamplesPackedBoard {
+  PackedBoard board;
+
+  void init() {
+    // a 3x2 board of two rows of pipes, joined down each column,
+    // with the station in the middle of the top row
+    this.board = new PackedBoard(3, 2);
+    this.board.tiles = new byte[] { 12, 13, 9, 6, 7, 3 };
+    this.board.setStation(1, true);
+  }
+
+  void testConstructor(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "PackedBoard", 0, 4);
+    t.checkConstructorException(new IllegalArgumentException("Board is too large to pack."),
+        "PackedBoard", 65536, 65536);
+    // a 4096x4096 board takes one byte per tile:
+    t.checkExpect(new PackedBoard(4096, 4096).tiles.length, 16777216);
+  }
+
+  void testRotated(Tester t) {
+    t.checkExpect(PackedBoard.ROTATED[PackedBoard.LEFT], (byte) PackedBoard.TOP);
+    t.checkExpect(PackedBoard.ROTATED[PackedBoard.BOTTOM], (byte) PackedBoard.LEFT);
+    t.checkExpect(PackedBoard.ROTATED[PackedBoard.LEFT | PackedBoard.RIGHT],
+        (byte) (PackedBoard.TOP | PackedBoard.BOTTOM));
+    t.checkExpect(PackedBoard.ROTATED[15], (byte) 15);
+    t.checkExpect(PackedBoard.ROTATED[0], (byte) 0);
+  }
+
+  void testOpposite(Tester t) {
+    t.checkExpect(PackedBoard.opposite(PackedBoard.LEFT), PackedBoard.RIGHT);
+    t.checkExpect(PackedBoard.opposite(PackedBoard.TOP), PackedBoard.BOTTOM);
+    t.checkExpect(PackedBoard.opposite(PackedBoard.RIGHT), PackedBoard.LEFT);
+    t.checkExpect(PackedBoard.opposite(PackedBoard.BOTTOM), PackedBoard.TOP);
+  }
+
+  void testConnections(Tester t) {
+    this.init();
+    t.checkExpect(this.board.connections(0), PackedBoard.RIGHT | PackedBoard.BOTTOM);
+    // flags are not connections:
+    t.checkExpect(this.board.connections(1), 13);
+    // CHANGE
+    this.board.setConnections(1, PackedBoard.TOP);
+    // AFTER
+    t.checkExpect(this.board.connections(1), PackedBoard.TOP);
+    t.checkExpect(this.board.hasStation(1), true);
+  }
+
+  void testRotate(Tester t) {
+    this.init();
+    // CHANGE
+    this.board.rotate(0);
+    this.board.rotate(1);
+    // AFTER
+    t.checkExpect(this.board.connections(0), PackedBoard.BOTTOM | PackedBoard.LEFT);
+    t.checkExpect(this.board.connections(1), 11);
+    t.checkExpect(this.board.hasStation(1), true);
+  }
+
+  void testFlags(Tester t) {
+    this.init();
+    // BEFORE
+    t.checkExpect(this.board.isLit(4), false);
+    t.checkExpect(this.board.hasStation(4), false);
+    // CHANGE
+    this.board.setLit(4, true);
+    this.board.setStation(4, true);
+    this.board.setStation(1, false);
+    // AFTER
+    t.checkExpect(this.board.isLit(4), true);
+    t.checkExpect(this.board.hasStation(4), true);
+    t.checkExpect(this.board.hasStation(1), false);
+    t.checkExpect(this.board.connections(4), 7);
+    this.board.setLit(4, false);
+    t.checkExpect(this.board.tiles[4], (byte) (7 | PackedBoard.STATION));
+  }
+
+  void testAdjacentTo(Tester t) {
+    this.init();
+    t.checkExpect(this.board.adjacentTo(4, 0), 3);
+    t.checkExpect(this.board.adjacentTo(4, 1), 1);
+    t.checkExpect(this.board.adjacentTo(4, 2), 5);
+    t.checkExpect(this.board.adjacentTo(4, 3), -1);
+    t.checkExpect(this.board.adjacentTo(3, 0), -1);
+    t.checkExpect(this.board.adjacentTo(2, 1), -1);
+    t.checkExpect(this.board.adjacentTo(2, 2), -1);
+  }
+
+  void testConnects(Tester t) {
+    this.init();
+    t.checkExpect(this.board.connects(0, 2), true);
+    t.checkExpect(this.board.connects(1, 0), true);
+    t.checkExpect(this.board.connects(1, 3), true);
+    t.checkExpect(this.board.connects(4, 1), true);
+    t.checkExpect(this.board.connects(3, 2), true);
+    // no connection either way:
+    t.checkExpect(this.board.connects(1, 1), false);
+    // open pipe facing a closed one:
+    this.board.rotate(2);
+    this.board.rotate(2);
+    t.checkExpect(this.board.connects(1, 2), false);
+  }
+
+  void testIsSpanningTree(Tester t) {
+    this.init();
+    // both rows and every column joined make cycles:
+    t.checkExpect(this.board.isSpanningTree(), false);
+    // CHANGE: only the top row and each column joined
+    this.board.tiles = new byte[] { 12, 13, 9, 2, 2, 2 };
+    // AFTER
+    t.checkExpect(this.board.isSpanningTree(), true);
+    // a pipe left open:
+    this.board.rotate(5);
+    t.checkExpect(this.board.isSpanningTree(), false);
+    t.checkExpect(new PackedBoard(1, 1).isSpanningTree(), true);
+  }
+}
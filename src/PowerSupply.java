@@ -12,15 +12,37 @@ import javalib.worldimages.*;
 
 // represents a game of LightEmAll
 class PowerSupply extends World {
+  // the direction (0 = left, 1 = top, 2 = right, 3 = bottom) each arrow key
+  // moves the power station
+  // NOTE: unmodifiable, since the game server reads it too
+  static final Map<String, Integer> KEY_DIRECTIONS = keyDirections();
+
+  // returns the direction each arrow key moves the power station, in a map
+  // that cannot be changed
+  static Map<String, Integer> keyDirections() {
+    HashMap<String, Integer> directions = new HashMap<String, Integer>();
+    directions.put("left", 0);
+    directions.put("up", 1);
+    directions.put("right", 2);
+    directions.put("down", 3);
+    return Collections.unmodifiableMap(directions);
+  }
+
+  // the keys that undo the last move in effect and redo the last undone
+  static final String UNDO_KEY = "z";
+  static final String REDO_KEY = "y";
+
   Random rand;
-  // a list of columns of GamePieces,
-  // i.e., represents the board in column-major order
-  ArrayList<ArrayList<GamePiece>> board;
-  // a list of all nodes
-  ArrayList<GamePiece> nodes;
-  // a list of all edges
+  // the board's tiles, packed one byte each in row-major order, which
+  // GamePieces are only views of
+  PackedBoard board;
+  // a list of all possible edges between pieces, as built by setEdges
+  // NOTE: a generated game builds its tree with generateTree instead, so this
+  // is left empty except by the test constructor and the benchmarks
   ArrayList<Edge> edges;
-  // a list of edges of the minimum spanning tree
+  // a list of edges of the minimum spanning tree, as built by setMST
+  // NOTE: a generated game connects its board along its tree directly, so
+  // this too is left empty except by the tests and the benchmarks
   ArrayList<Edge> mst;
   // the width and height of the board
   int width;
@@ -31,8 +53,70 @@ class PowerSupply extends World {
   int powerCol;
   int radius;
   int tickNum;
-
-  PowerSupply(int width, int height, Random rand) {
+  // the seed the board was generated and scrambled from, if it was (rather
+  // than from a Random the caller made), and whether the station started at
+  // the center of the tree, which with the moves are all it takes to rebuild
+  // the game
+  long seed;
+  boolean seeded;
+  boolean startAtCenter;
+  // every rotation and station move made so far, which can be undone and
+  // redone, or replayed onto a new game made from the same seed
+  MoveLog moves;
+  // reusable buffers for breadth-first searches, indexed by row * width + col:
+  // the queue of tiles to visit, the depth at which each tile was reached,
+  // the tile it was reached from, and the number of the search that last
+  // reached each tile
+  int[] searchQueue;
+  int[] searchDepth;
+  int[] searchFrom;
+  int[] searchSeen;
+  int searchNum;
+  // the longest path through the tree of connected pieces reachable from the
+  // station: the tiles at either end, its length in connections, and the
+  // tile halfway along it, measured on the solved board and kept until the
+  // board is next solved
+  int diameterStart;
+  int diameterEnd;
+  int diameter;
+  int center;
+  boolean measured;
+  // the distance from the power station to every lit tile, in connections,
+  // indexed by row * width + col (-1 where a tile is not lit)
+  int[] distance;
+  // the tile each lit tile receives its power from (-1 for the station)
+  int[] parent;
+  // the lit tiles, in the order the last call to sendPower lit them (which
+  // doubles as its search queue) followed by any lit since, how many there
+  // are, and the position of each lit tile in that list
+  int[] litTiles;
+  int litCount;
+  int[] litPos;
+  // the number of calls to sendPower so far
+  int powerNum;
+  // reusable buffers for updating power around a rotated tile: the tiles that
+  // lost power, and a ring buffer of tiles whose distance just shrank
+  int[] cutTiles;
+  int[] relaxQueue;
+  boolean[] relaxQueued;
+  // the tiles whose images changed since the board was last composed, how
+  // many there are, and whether each tile is among them
+  int[] dirtyTiles;
+  int dirtyCount;
+  boolean[] dirty;
+  // the images composing the board, as trees stored heap-style (node i has
+  // children 2i and 2i + 1, and node 1 is the whole): one per row joining its
+  // tiles side by side, and one joining those rows top to bottom, plus the
+  // rows changed while composing and whether each row is among them
+  WorldImage[][] rowImages;
+  WorldImage[] boardImages;
+  int[] dirtyRows;
+  boolean[] rowChanged;
+
+  // constructor for a generated game, with the power station in the top left
+  // corner or, if asked, at the center of the tree, where it reaches every
+  // tile soonest
+  PowerSupply(int width, int height, Random rand, boolean startAtCenter) {
     this.rand = rand;
     if (width <= 0 || height <= 0) {
       throw new IllegalArgumentException("Width and height must be positive values.");
@@ -42,24 +126,77 @@ class PowerSupply extends World {
     this.powerRow = 0;
     this.powerCol = 0;
     this.tickNum = 0;
+    this.startAtCenter = startAtCenter;
+    this.initBuffers();
     this.board = this.dummyBoard();
-    this.nodes = this.setNodes();
-    this.edges = this.setEdges();
-    this.mst = this.setMST();
-    this.setConnections();
-    this.updatePieceEdges();
+    this.edges = new ArrayList<Edge>();
+    this.mst = new ArrayList<Edge>();
+    this.generateTree();
     this.radius = this.findRadius();
+    if (startAtCenter) {
+      this.moveStationToCenter();
+    }
     this.scrambleBoard();
     this.sendPower(this.powerCol, this.powerRow, this.radius);
   }
 
+  PowerSupply(int width, int height, Random rand) {
+    this(width, height, rand, false);
+  }
+
+  // constructor for a generated game that can be rebuilt from its seed
+  PowerSupply(int width, int height, long seed, boolean startAtCenter) {
+    this(width, height, new Random(seed), startAtCenter);
+    this.seed = seed;
+    this.seeded = true;
+  }
+
   PowerSupply(int width, int height) {
-    this(width, height, new Random());
+    this(width, height, new Random().nextLong(), false);
+  }
+
+  // constructor for a game built from a solved board in packed form,
+  // which is scrambled just like a generated one
+  PowerSupply(PackedBoard solved, Random rand) {
+    this.rand = rand;
+    this.width = solved.width;
+    this.height = solved.height;
+    this.powerRow = 0;
+    this.powerCol = 0;
+    this.tickNum = 0;
+    this.initBuffers();
+    this.board = this.dummyBoard();
+    this.edges = new ArrayList<Edge>();
+    this.mst = new ArrayList<Edge>();
+    this.unpack(solved);
+    this.radius = this.findRadius();
+    this.scrambleBoard();
+    this.sendPower(this.powerCol, this.powerRow, this.radius);
+  }
+
+  // constructor for a game of a board generated headlessly, which starts out
+  // scrambled by the level's own rotations
+  PowerSupply(GeneratedLevel level, Random rand) {
+    this.rand = rand;
+    this.width = level.solved.width;
+    this.height = level.solved.height;
+    this.powerRow = 0;
+    this.powerCol = 0;
+    this.tickNum = 0;
+    this.initBuffers();
+    this.board = this.dummyBoard();
+    this.edges = new ArrayList<Edge>();
+    this.mst = new ArrayList<Edge>();
+    this.unpack(level.solved);
+    this.radius = this.findRadius();
+    this.rotateBoard(level.rotations);
+    this.sendPower(this.powerCol, this.powerRow, this.radius);
   }
 
-  // constructor for testing purposes
+  // constructor for testing purposes, which moves the given columns of
+  // gamepieces onto the game's board
   PowerSupply(int width, int height, ArrayList<ArrayList<GamePiece>> board,
-      ArrayList<GamePiece> nodes, ArrayList<Edge> edges, Random rand) {
+      ArrayList<Edge> edges, Random rand) {
     this.rand = rand;
     if (width <= 0 || height <= 0) {
       throw new IllegalArgumentException("Width and height must be positive values.");
@@ -67,8 +204,13 @@ class PowerSupply extends World {
     this.width = width;
     this.height = height;
     this.tickNum = 0;
-    this.board = board;
-    this.nodes = nodes;
+    this.initBuffers();
+    this.board = new PackedBoard(width, height);
+    for (ArrayList<GamePiece> column : board) {
+      for (GamePiece piece : column) {
+        piece.moveTo(this.board);
+      }
+    }
     this.edges = edges;
     this.mst = new ArrayList<Edge>();
     this.powerRow = 0;
@@ -76,30 +218,52 @@ class PowerSupply extends World {
     this.radius = this.findRadius();
   }
 
+  // EFFECT: allocates the per-tile buffers used by searches and power updates,
+  // and an empty move log
+  void initBuffers() {
+    int size = this.width * this.height;
+    this.moves = new MoveLog(16);
+    this.searchQueue = new int[size];
+    this.searchDepth = new int[size];
+    this.searchFrom = new int[size];
+    this.searchSeen = new int[size];
+    this.searchNum = 0;
+    this.distance = new int[size];
+    Arrays.fill(this.distance, -1);
+    this.parent = new int[size];
+    this.litTiles = new int[size];
+    this.litCount = 0;
+    this.litPos = new int[size];
+    this.powerNum = 0;
+    this.cutTiles = new int[size];
+    this.relaxQueue = new int[size];
+    this.relaxQueued = new boolean[size];
+    this.dirtyTiles = new int[size];
+    this.dirtyCount = 0;
+    this.dirty = new boolean[size];
+  }
+
   // on every tick, increases the counter for ticks so far in this game
   public void onTick() {
     this.tickNum += 1;
   }
 
-  // returns a dummy board of gamepieces with no connections
-  ArrayList<ArrayList<GamePiece>> dummyBoard() {
-    ArrayList<ArrayList<GamePiece>> dummy = new ArrayList<ArrayList<GamePiece>>();
-    for (int c = 0; c < this.width; c += 1) {
-      dummy.add(new ArrayList<GamePiece>());
-      for (int r = 0; r < this.height; r += 1) {
-        dummy.get(c).add(new GamePiece(r, c, false, false, false, false, false, this.rand));
-      }
-    }
-    dummy.get(0).get(0).powerStation = true;
+  // returns a dummy board with no connections, and the power station in the
+  // top left corner
+  PackedBoard dummyBoard() {
+    PackedBoard dummy = new PackedBoard(this.width, this.height);
+    dummy.setStation(0, true);
     return dummy;
   }
 
-  // returns a list of all gamepieces on the board
+  // returns a list of all gamepieces on the board, in column-major order
+  // NOTE: the pieces are views made fresh for the list, for the tests and the
+  // benchmarks; the game itself keeps none
   ArrayList<GamePiece> setNodes() {
     ArrayList<GamePiece> nodeList = new ArrayList<GamePiece>();
     for (int c = 0; c < this.width; c += 1) {
       for (int r = 0; r < this.height; r += 1) {
-        nodeList.add(this.board.get(c).get(r));
+        nodeList.add(this.pieceAt(c, r));
       }
     }
 
@@ -107,23 +271,26 @@ class PowerSupply extends World {
   }
 
   // returns all possible edges between gamepieces, assuming they're all connected
+  // NOTE: along with setMST, sortEdges and setConnections, this is the old,
+  // object-per-edge way of generating a tree, kept for the tests and the
+  // benchmarks that compare it against generateTree
   ArrayList<Edge> setEdges() {
     ArrayList<Edge> edgeList = new ArrayList<Edge>();
     GamePiece curr;
     for (int c = 0; c < this.width; c += 1) {
       for (int r = 0; r < this.height; r += 1) {
-        curr = this.board.get(c).get(r);
+        curr = this.pieceAt(c, r);
         if (c > 0) {
-          edgeList.add(new Edge(curr, this.board.get(c - 1).get(r), this.rand));
+          edgeList.add(new Edge(curr, this.pieceAt(c - 1, r), this.rand));
         }
         if (r > 0) {
-          edgeList.add(new Edge(curr, this.board.get(c).get(r - 1), this.rand));
+          edgeList.add(new Edge(curr, this.pieceAt(c, r - 1), this.rand));
         }
         if (c < this.width - 1) {
-          edgeList.add(new Edge(curr, this.board.get(c + 1).get(r), this.rand));
+          edgeList.add(new Edge(curr, this.pieceAt(c + 1, r), this.rand));
         }
         if (r < this.height - 1) {
-          edgeList.add(new Edge(curr, this.board.get(c).get(r + 1), this.rand));
+          edgeList.add(new Edge(curr, this.pieceAt(c, r + 1), this.rand));
         }
       }
 
@@ -132,80 +299,151 @@ class PowerSupply extends World {
   }
 
   // uses Kruskal's Algorithm to find the minimum spanning tree of the board
+  // NOTE: tracks components with an int-indexed disjoint-set forest, so every
+  // union/find is near-constant and the search stops once the tree is complete
   ArrayList<Edge> setMST() {
     ArrayList<Edge> tree = new ArrayList<Edge>();
-    ArrayList<Edge> worklist = this.heapsortEdges();
-    HashMap<GamePiece, GamePiece> map = new HashMap<GamePiece, GamePiece>();
-    Edge next;
-    for (GamePiece piece : this.nodes) {
-      map.put(piece, piece);
-    }
-    while (this.multipleSelfReps(map)) {
-      next = worklist.remove(0);
-      // NOTE: using intensional equality on gamepieces because they are mutable
-      // and because no two are the same (all have different col/row position)
-      if (this.findRep(map, next.fromNode) != this.findRep(map, next.toNode)) {
+    int[] worklist = this.sortEdges();
+    int[] parents = new int[this.width * this.height];
+    int[] ranks = new int[this.width * this.height];
+    for (int i = 0; i < parents.length; i += 1) {
+      parents[i] = i;
+    }
+    int needed = this.width * this.height - 1;
+    for (int i = 0; i < worklist.length && tree.size() < needed; i += 1) {
+      Edge next = this.edges.get(worklist[i]);
+      if (this.union(parents, ranks, this.indexOf(next.fromNode), this.indexOf(next.toNode))) {
         tree.add(next);
-        map.replace(this.findRep(map, next.toNode), next.fromNode);
       }
     }
     return tree;
   }
 
-  // is there more than one key in the given hashmap whose value is itself?
-  boolean multipleSelfReps(HashMap<GamePiece, GamePiece> map) {
-    boolean foundSelfRep = false;
-    for (GamePiece piece : this.nodes) {
-      // NOTE: using intensional equality on gamepieces because they are mutable
-      // and because no two are the same (all have different col/row position)
-      if (map.get(piece) == piece) {
-        if (foundSelfRep) {
-          return true;
-        }
-        else {
-          foundSelfRep = true;
-        }
-      }
+  // EFFECT: connects the board's tiles along the minimum spanning tree of the
+  // board, with every possible edge given a random weight, replacing whatever
+  // they were connected to
+  // NOTE: the same steps as setEdges, setMST and setConnections, but every
+  // possible edge is stored once, as primitives, and none ever becomes an
+  // Edge object
+  void generateTree() {
+    BoardGenerator generator = new BoardGenerator(this.width, this.height);
+    for (int i = 0; i < generator.weights.length; i += 1) {
+      generator.weights[i] = (short) this.rand.nextInt(Edge.MAX_WEIGHT);
+    }
+    generator.sortEdges();
+    PackedBoard solved = new PackedBoard(this.width, this.height);
+    generator.connectTree(solved);
+    for (int i = 0; i < solved.tiles.length; i += 1) {
+      this.board.setConnections(i, solved.connections(i));
+    }
+  }
+
+  // returns the row-major index of the given gamepiece on this board
+  int indexOf(GamePiece piece) {
+    return piece.row * this.width + piece.col;
+  }
+
+  // finds the representative of the given index in the given disjoint-set forest
+  // (meaning follow parents until an index points to itself)
+  // EFFECT: halves the path walked, so later searches are shorter
+  int findRep(int[] parents, int index) {
+    while (parents[index] != index) {
+      parents[index] = parents[parents[index]];
+      index = parents[index];
     }
-    return false;
+    return index;
   }
 
-  // finds the representative of the given piece in the given hashmap
-  // (meaning trace back the values to keys until a key points to itself)
-  GamePiece findRep(HashMap<GamePiece, GamePiece> map, GamePiece piece) {
-    if (map.get(piece) == piece) {
-      return piece;
+  // EFFECT: merges the sets containing the two given indices, hanging the
+  // shallower tree under the deeper one
+  // returns whether the indices were in different sets before the merge
+  boolean union(int[] parents, int[] ranks, int a, int b) {
+    int repA = this.findRep(parents, a);
+    int repB = this.findRep(parents, b);
+    if (repA == repB) {
+      return false;
+    }
+    if (ranks[repA] < ranks[repB]) {
+      parents[repA] = repB;
+    }
+    else if (ranks[repA] > ranks[repB]) {
+      parents[repB] = repA;
     }
     else {
-      return findRep(map, map.get(piece));
+      parents[repB] = repA;
+      ranks[repA] += 1;
     }
+    return true;
   }
 
-  // sorts all possible edges between gamepieces using heapsort
-  ArrayList<Edge> heapsortEdges() {
-    formHeap(this.edges, this.edges.size() - 1);
-    for (int i = this.edges.size() - 1; i > 0; i -= 1) {
-      Edge temp = this.edges.get(0);
-      this.edges.set(0, this.edges.get(i));
-      this.edges.set(i, temp);
-      formHeap(this.edges, i - 1);
+  // returns the indices of all possible edges between gamepieces, ordered by
+  // increasing weight, leaving the list of edges itself untouched
+  // NOTE: counting sort is used whenever every weight is in the generated range
+  int[] sortEdges() {
+    for (int i = 0; i < this.edges.size(); i += 1) {
+      int weight = this.edges.get(i).weight;
+      if (weight < 0 || weight >= Edge.MAX_WEIGHT) {
+        return this.heapsortEdges();
+      }
     }
-    return this.edges;
+    return this.countingSortEdges();
   }
 
-  // makes the given list into a valid heap
-  void formHeap(ArrayList<Edge> edgeList, int startIndex) {
-    for (int i = startIndex; i > 0; i -= 1) {
-      int curr = i;
-      while (curr > 0) {
-        Edge child = edgeList.get(curr);
-        Edge parent = edgeList.get((curr - 1) / 2);
-        if (child.weight > parent.weight) {
-          edgeList.set(curr, parent);
-          edgeList.set((curr - 1) / 2, child);
-        }
-        curr = (curr - 1) / 2;
+  // orders the indices of all possible edges by weight using a (stable)
+  // counting sort, assuming every weight is in [0, Edge.MAX_WEIGHT)
+  int[] countingSortEdges() {
+    int[] starts = new int[Edge.MAX_WEIGHT + 1];
+    for (int i = 0; i < this.edges.size(); i += 1) {
+      starts[this.edges.get(i).weight + 1] += 1;
+    }
+    for (int w = 1; w <= Edge.MAX_WEIGHT; w += 1) {
+      starts[w] += starts[w - 1];
+    }
+    int[] order = new int[this.edges.size()];
+    for (int i = 0; i < this.edges.size(); i += 1) {
+      int weight = this.edges.get(i).weight;
+      order[starts[weight]] = i;
+      starts[weight] += 1;
+    }
+    return order;
+  }
+
+  // orders the indices of all possible edges by weight using heapsort,
+  // for edges whose weights may be arbitrary
+  int[] heapsortEdges() {
+    int[] order = new int[this.edges.size()];
+    for (int i = 0; i < order.length; i += 1) {
+      order[i] = i;
+    }
+    for (int i = order.length / 2 - 1; i >= 0; i -= 1) {
+      this.siftDown(order, i, order.length);
+    }
+    for (int end = order.length - 1; end > 0; end -= 1) {
+      int temp = order[0];
+      order[0] = order[end];
+      order[end] = temp;
+      this.siftDown(order, 0, end);
+    }
+    return order;
+  }
+
+  // EFFECT: moves the edge index at the given position down the max-heap made
+  // of the first size entries of order, until neither child is heavier
+  void siftDown(int[] order, int index, int size) {
+    int curr = index;
+    while (2 * curr + 1 < size) {
+      int child = 2 * curr + 1;
+      if (child + 1 < size
+          && this.edges.get(order[child + 1]).weight > this.edges.get(order[child]).weight) {
+        child += 1;
+      }
+      if (this.edges.get(order[child]).weight <= this.edges.get(order[curr]).weight) {
+        return;
       }
+      int temp = order[curr];
+      order[curr] = order[child];
+      order[child] = temp;
+      curr = child;
     }
   }
 
@@ -217,20 +455,40 @@ class PowerSupply extends World {
       from = e.fromNode;
       to = e.toNode;
       if (from.col > to.col) {
-        from.left = true;
-        to.right = true;
+        from.setMask(from.mask() | PackedBoard.LEFT);
+        to.setMask(to.mask() | PackedBoard.RIGHT);
       }
       else if (from.row > to.row) {
-        from.top = true;
-        to.bottom = true;
+        from.setMask(from.mask() | PackedBoard.TOP);
+        to.setMask(to.mask() | PackedBoard.BOTTOM);
       }
       else if (from.col < to.col) {
-        from.right = true;
-        to.left = true;
+        from.setMask(from.mask() | PackedBoard.RIGHT);
+        to.setMask(to.mask() | PackedBoard.LEFT);
       }
       else if (from.row < to.row) {
-        from.bottom = true;
-        to.top = true;
+        from.setMask(from.mask() | PackedBoard.BOTTOM);
+        to.setMask(to.mask() | PackedBoard.TOP);
+      }
+    }
+  }
+
+  // returns a copy of this board in packed form
+  PackedBoard pack() {
+    PackedBoard packed = new PackedBoard(this.width, this.height);
+    System.arraycopy(this.board.tiles, 0, packed.tiles, 0, packed.tiles.length);
+    return packed;
+  }
+
+  // EFFECT: sets every tile's connections, and the location of the power
+  // station, from the given board in packed form
+  void unpack(PackedBoard packed) {
+    for (int i = 0; i < packed.tiles.length; i += 1) {
+      this.board.setConnections(i, packed.connections(i));
+      this.board.setStation(i, packed.hasStation(i));
+      if (packed.hasStation(i)) {
+        this.powerCol = i % this.width;
+        this.powerRow = i / this.width;
       }
     }
   }
@@ -242,7 +500,7 @@ class PowerSupply extends World {
       for (int r = 0; r < this.height; r += 1) {
         rotations = this.rand.nextInt(4);
         while (rotations > 0) {
-          this.board.get(c).get(r).rotate();
+          this.board.rotate(r * this.width + c);
           rotations -= 1;
 
         }
@@ -250,157 +508,417 @@ class PowerSupply extends World {
     }
   }
 
+  // EFFECT: rotates every tile on the board clockwise by the number of
+  // rotations given for it, in row-major order
+  void rotateBoard(byte[] rotations) {
+    for (int i = 0; i < rotations.length; i += 1) {
+      for (int k = 0; k < rotations[i]; k += 1) {
+        this.board.rotate(i);
+      }
+    }
+  }
+
   // calculates the radius of the board
   // (half of the furthest distance between nodes, plus 1)
+  // NOTE: takes no time at all unless the board was solved since it was last
+  // measured
   int findRadius() {
-    GamePiece furthestFromStation = this
-        .furthestFrom(this.board.get(this.powerCol).get(this.powerRow));
-    int diameter = this.findDistance(furthestFromStation, this.furthestFrom(furthestFromStation));
-    return diameter / 2 + 1;
+    if (!this.measured) {
+      this.measureTree();
+    }
+    return this.diameter / 2 + 1;
+  }
+
+  // EFFECT: finds the longest path through the tree of connected pieces
+  // reachable from the station, in two searches: the tile furthest from the
+  // station is at one end of it, and the tile furthest from that is at the
+  // other, with the center halfway back along the way it was reached
+  void measureTree() {
+    this.diameterStart = this.search(this.powerRow * this.width + this.powerCol, -1);
+    this.diameterEnd = this.search(this.diameterStart, -1);
+    this.diameter = this.searchDepth[this.diameterEnd];
+    this.center = this.diameterEnd;
+    for (int k = 0; k < this.diameter / 2; k += 1) {
+      this.center = this.searchFrom[this.center];
+    }
+    this.measured = true;
+  }
+
+  // EFFECT: moves the power station to the center of the tree
+  void moveStationToCenter() {
+    this.findRadius();
+    this.placeStation(this.center);
+  }
+
+  // EFFECT: moves the power station to the tile at the given index, without
+  // sending power from it
+  void placeStation(int index) {
+    this.board.setStation(this.powerRow * this.width + this.powerCol, false);
+    this.markDirty(this.powerRow * this.width + this.powerCol);
+    this.powerCol = index % this.width;
+    this.powerRow = index / this.width;
+    this.board.setStation(index, true);
+    this.markDirty(index);
   }
 
   // returns the last gamepiece found from performing a breadth-first search
   // starting at the given gamepiece
-  // NOTE: uses an ArrayList with same functionality as a queue
   GamePiece furthestFrom(GamePiece start) {
-    ArrayList<GamePiece> queue = new ArrayList<GamePiece>();
-    ArrayList<GamePiece> alreadySeen = new ArrayList<GamePiece>();
-    queue.add(start);
-    while (!queue.isEmpty()) {
-      GamePiece next = queue.remove(0);
-      if (queue.isEmpty() && next.edges.size() == 1
-          && alreadySeen.contains(next.edges.get(0).toNode)) {
-        return next;
-      }
-      else if (!alreadySeen.contains(next)) {
-        for (Edge e : next.edges) {
-          if (!alreadySeen.contains(e.toNode)) {
-            queue.add(e.toNode);
-          }
-        }
-        alreadySeen.add(next);
-      }
-    }
-    return start;
+    return this.pieceAt(this.search(this.indexOf(start), -1));
   }
 
   // finds the shortest distance between the two nodes using BFS
-  // NOTE: uses an ArrayList with same functionality as a queue
   int findDistance(GamePiece from, GamePiece to) {
-    ArrayList<GamePiece> searchQueue = new ArrayList<GamePiece>();
-    ArrayList<Integer> depthQueue = new ArrayList<Integer>();
-    ArrayList<GamePiece> alreadySeen = new ArrayList<GamePiece>();
-    searchQueue.add(from);
-    depthQueue.add(0);
-    while (!searchQueue.isEmpty()) {
-      GamePiece next = searchQueue.remove(0);
-      int depth = depthQueue.remove(0);
-      if (next.equals(to)) {
-        return depth;
-      }
-      else if (!alreadySeen.contains(next)) {
-        for (Edge e : next.edges) {
+    if (!this.onBoard(to)) {
+      return -1; // destination node is not part of this board
+    }
+    int target = this.indexOf(to);
+    this.search(this.indexOf(from), target);
+    if (this.searchSeen[target] == this.searchNum) {
+      return this.searchDepth[target];
+    }
+    else {
+      return -1; // destination node cannot be reached
+    }
+  }
 
-          if (!alreadySeen.contains(e.toNode)) {
-            searchQueue.add(e.toNode);
-            depthQueue.add(depth + 1);
-          }
+  // EFFECT: performs a breadth-first search along the connections between
+  // pieces from the tile at the given index, recording the depth of every tile
+  // reached and the tile it was reached from, and stops
+  // early once the target index is visited (a negative target visits all)
+  // returns the index of the last tile visited
+  // NOTE: every tile is queued at most once, so the queue never wraps, and
+  // tiles count as seen only when stamped with the current search number
+  // NOTE: connections are read from the packed tiles, as in sendPower, so
+  // this always searches the board as it stands
+  int search(int start, int target) {
+    if (this.searchNum == Integer.MAX_VALUE) {
+      Arrays.fill(this.searchSeen, 0);
+      this.searchNum = 0;
+    }
+    this.searchNum += 1;
+    int head = 0;
+    int tail = 1;
+    this.searchQueue[0] = start;
+    this.searchSeen[start] = this.searchNum;
+    this.searchDepth[start] = 0;
+    this.searchFrom[start] = -1;
+    int last = start;
+    while (head < tail) {
+      last = this.searchQueue[head];
+      head += 1;
+      if (last == target) {
+        return last;
+      }
+      for (int dir = 0; dir < 4; dir += 1) {
+        int next = this.connectedTo(last, dir);
+        if (next >= 0 && this.searchSeen[next] != this.searchNum) {
+          this.searchSeen[next] = this.searchNum;
+          this.searchDepth[next] = this.searchDepth[last] + 1;
+          this.searchFrom[next] = last;
+          this.searchQueue[tail] = next;
+          tail += 1;
         }
-        alreadySeen.add(next);
       }
     }
-    return -1; // destination node cannot be reached
+    return last;
+  }
+
+  // returns a view of the gamepiece at the given row-major index on this board
+  GamePiece pieceAt(int index) {
+    return new GamePiece(this.board, index);
+  }
+
+  // returns a view of the gamepiece at the given column and row on this board
+  GamePiece pieceAt(int c, int r) {
+    return this.pieceAt(r * this.width + c);
+  }
+
+  // is the given gamepiece a view of this board?
+  boolean onBoard(GamePiece piece) {
+    return piece.board == this.board;
   }
 
   // EFFECT: updates which game pieces are lit based on their connectivity to the
-  // power station
+  // power station at the given column and row, recording each lit piece's
+  // distance from it
+  // NOTE: lights pieces breadth-first, so each is reached along a shortest path,
+  // and only unlights the pieces lit before this call
   void sendPower(int x, int y, int radiusLeft) {
-    // refresh the power grid so no disconnected piece is stuck with power:
-    if (radiusLeft == this.radius) {
-      for (int c = 0; c < this.width; c += 1) {
-        for (int r = 0; r < this.height; r += 1) {
-          this.board.get(c).get(r).itsLit = false;
+    for (int i = 0; i < this.litCount; i += 1) {
+      this.board.setLit(this.litTiles[i], false);
+      this.distance[this.litTiles[i]] = -1;
+      this.markDirty(this.litTiles[i]);
+    }
+    this.litCount = 0;
+    this.powerNum += 1;
+    this.light(y * this.width + x, -1, 0);
+    for (int head = 0; head < this.litCount; head += 1) {
+      int curr = this.litTiles[head];
+      // NOTE: the following check uses distance <= radiusLeft instead of
+      // distance < radiusLeft because I am not counting the power station's
+      // start tile as expending any power
+      if (this.distance[curr] <= radiusLeft) {
+        for (int dir = 0; dir < 4; dir += 1) {
+          int next = this.connectedTo(curr, dir);
+          if (next >= 0) {
+            this.spreadPower(curr, next);
+          }
         }
       }
     }
-    GamePiece piece = this.board.get(x).get(y);
-    piece.itsLit = true;
-    // NOTE: the following if statements check if radiusLeft >= 0 instead of
-    // radiusLeft > 0 because I am not counting the power station's start tile as
-    // expending any power
-    if (x > 0 && piece.left && this.board.get(x - 1).get(y).right
-        && !this.board.get(x - 1).get(y).itsLit && radiusLeft >= 0) {
-      this.sendPower(x - 1, y, radiusLeft - 1);
-    }
-    if (y > 0 && piece.top && this.board.get(x).get(y - 1).bottom
-        && !this.board.get(x).get(y - 1).itsLit && radiusLeft >= 0) {
-      this.sendPower(x, y - 1, radiusLeft - 1);
-    }
-    if (x < this.width - 1 && piece.right && this.board.get(x + 1).get(y).left
-        && !this.board.get(x + 1).get(y).itsLit && radiusLeft >= 0) {
-      this.sendPower(x + 1, y, radiusLeft - 1);
-    }
-    if (y < this.height - 1 && piece.bottom && this.board.get(x).get(y + 1).top
-        && !this.board.get(x).get(y + 1).itsLit && radiusLeft >= 0) {
-      this.sendPower(x, y + 1, radiusLeft - 1);
-    }
+  }
 
+  // EFFECT: lights the tile at index next, one connection further from the
+  // station than the tile at index from, unless this call already reached it
+  // NOTE: sendPower unlights every tile before spreading, so any tile with a
+  // distance was reached by this call
+  void spreadPower(int from, int next) {
+    if (this.distance[next] < 0) {
+      this.light(next, from, this.distance[from] + 1);
+    }
   }
 
-  // EFFECT: updates the list of outgoing edges for every gamepiece on the board,
-  // based on their connections
-  void updatePieceEdges() {
-    for (int c = 0; c < this.width; c += 1) {
-      for (int r = 0; r < this.height; r += 1) {
-        GamePiece piece = this.board.get(c).get(r);
-        piece.edges = new ArrayList<Edge>();
-        if (c > 0 && piece.left && this.board.get(c - 1).get(r).right) {
-          piece.addEdge(this.board.get(c - 1).get(r));
-        }
-        if (r > 0 && piece.top && this.board.get(c).get(r - 1).bottom) {
-          piece.addEdge(this.board.get(c).get(r - 1));
+  // EFFECT: updates which game pieces are lit after the piece at the given
+  // column and row has rotated, by unlighting only the pieces whose power
+  // flowed through it and then spreading power back into them, and outward
+  // from any new connections, along shortest paths
+  void updatePowerAt(int c, int r) {
+    int index = r * this.width + c;
+    if (index == this.powerRow * this.width + this.powerCol) {
+      // every lit piece hangs off the station
+      this.sendPower(this.powerCol, this.powerRow, this.radius);
+      return;
+    }
+    int cutCount = 1;
+    this.cutTiles[0] = index;
+    if (this.distance[index] >= 0) {
+      this.unlight(index);
+    }
+    for (int i = 0; i < cutCount; i += 1) {
+      for (int dir = 0; dir < 4; dir += 1) {
+        int next = this.adjacentTo(this.cutTiles[i], dir);
+        if (next >= 0 && this.distance[next] >= 0 && this.parent[next] == this.cutTiles[i]) {
+          this.unlight(next);
+          this.cutTiles[cutCount] = next;
+          cutCount += 1;
         }
-        if (c < this.width - 1 && piece.right && this.board.get(c + 1).get(r).left) {
-          piece.addEdge(this.board.get(c + 1).get(r));
+      }
+    }
+    // re-seed the cut tiles from their lit neighbours, then relax outward
+    int head = 0;
+    int queued = 0;
+    for (int i = 0; i < cutCount; i += 1) {
+      int curr = this.cutTiles[i];
+      for (int dir = 0; dir < 4; dir += 1) {
+        int next = this.connectedTo(curr, dir);
+        if (next >= 0 && this.distance[next] >= 0 && this.relaxPower(next, curr)) {
+          if (!this.relaxQueued[curr]) {
+            this.relaxQueued[curr] = true;
+            this.relaxQueue[(head + queued) % this.relaxQueue.length] = curr;
+            queued += 1;
+          }
         }
-        if (r < this.height - 1 && piece.bottom && this.board.get(c).get(r + 1).top) {
-          piece.addEdge(this.board.get(c).get(r + 1));
+      }
+    }
+    while (queued > 0) {
+      int curr = this.relaxQueue[head];
+      this.relaxQueued[curr] = false;
+      head = (head + 1) % this.relaxQueue.length;
+      queued -= 1;
+      for (int dir = 0; dir < 4; dir += 1) {
+        int next = this.connectedTo(curr, dir);
+        if (next >= 0 && this.relaxPower(curr, next) && !this.relaxQueued[next]) {
+          this.relaxQueued[next] = true;
+          this.relaxQueue[(head + queued) % this.relaxQueue.length] = next;
+          queued += 1;
         }
       }
     }
+  }
 
+  // EFFECT: lights the tile at index next through the lit tile at index from,
+  // if that is shorter than its current path and within the station's radius
+  // returns whether the tile's distance changed
+  boolean relaxPower(int from, int next) {
+    int dist = this.distance[from] + 1;
+    // NOTE: as in sendPower, the station's own tile expends no power
+    if (dist > this.radius + 1 || (this.distance[next] >= 0 && this.distance[next] <= dist)) {
+      return false;
+    }
+    if (this.distance[next] >= 0) {
+      this.distance[next] = dist;
+      this.parent[next] = from;
+      this.markDirty(next);
+    }
+    else {
+      this.light(next, from, dist);
+    }
+    return true;
   }
 
-  // are all gamepieces receiving power from the power station?
-  boolean gameWon() {
-    for (int c = 0; c < this.width; c += 1) {
-      for (int r = 0; r < this.height; r += 1) {
-        if (!this.board.get(c).get(r).itsLit) {
-          return false;
-        }
-      }
+  // EFFECT: lights the unlit tile at the given index, recording the tile it
+  // receives power from and its distance from the station
+  void light(int index, int from, int dist) {
+    this.board.setLit(index, true);
+    this.distance[index] = dist;
+    this.parent[index] = from;
+    this.litPos[index] = this.litCount;
+    this.litTiles[this.litCount] = index;
+    this.litCount += 1;
+    this.markDirty(index);
+  }
+
+  // EFFECT: unlights the lit tile at the given index
+  void unlight(int index) {
+    this.board.setLit(index, false);
+    this.distance[index] = -1;
+    int last = this.litTiles[this.litCount - 1];
+    this.litTiles[this.litPos[index]] = last;
+    this.litPos[last] = this.litPos[index];
+    this.litCount -= 1;
+    this.markDirty(index);
+  }
+
+  // returns the index of the tile next to the tile at the given index in the
+  // given direction (0 = left, 1 = top, 2 = right, 3 = bottom), or -1 if
+  // that is off the board
+  int adjacentTo(int index, int direction) {
+    return this.board.adjacentTo(index, direction);
+  }
+
+  // returns the index of the tile connected to the tile at the given index in
+  // the given direction (0 = left, 1 = top, 2 = right, 3 = bottom), or -1 if
+  // their tiles do not connect to each other
+  int connectedTo(int index, int direction) {
+    if (this.board.connects(index, direction)) {
+      return this.board.adjacentTo(index, direction);
+    }
+    else {
+      return -1;
     }
+  }
 
+  // EFFECT: rotates every gamepiece into a solution of the board, if it has
+  // one, and relights the board
+  // returns whether the board has a solution
+  boolean autoSolve() {
+    byte[] rotations = new BoardSolver(this.pack()).solve();
+    if (rotations == null) {
+      return false;
+    }
+    this.rotateBoard(rotations);
+    for (int i = 0; i < rotations.length; i += 1) {
+      if (rotations[i] != 0) {
+        this.markDirty(i);
+      }
+    }
+    this.measured = false;
+    this.sendPower(this.powerCol, this.powerRow, this.radius);
     return true;
   }
 
+  // are all gamepieces receiving power from the power station?
+  // NOTE: every tile lit or unlit goes through light or unlight, which keep
+  // count of the lit tiles
+  boolean gameWon() {
+    return this.litCount == this.width * this.height;
+  }
+
   // displays the grid of gamepieces
   public WorldScene makeScene() {
+    this.composeBoard();
     WorldScene scene = this.getEmptyScene();
-    GamePiece piece;
-    for (int c = 0; c < this.width; c += 1) {
+    scene.placeImageXY(this.boardImages[1], this.width * 25, this.height * 25);
+    scene.placeImageXY(new TextImage("Time: " + this.tickNum, 24, Color.WHITE), scene.width / 2,
+        15);
+    return scene;
+  }
+
+  // EFFECT: marks the tile at the given index as needing to be redrawn
+  void markDirty(int index) {
+    if (!this.dirty[index]) {
+      this.dirty[index] = true;
+      this.dirtyTiles[this.dirtyCount] = index;
+      this.dirtyCount += 1;
+    }
+  }
+
+  // EFFECT: brings the composed image of the board up to date, redrawing only
+  // the tiles marked dirty and the images joining them to the rest
+  void composeBoard() {
+    if (this.boardImages == null) {
+      this.rowImages = new WorldImage[this.height][4 * this.width];
+      this.boardImages = new WorldImage[4 * this.height];
+      this.dirtyRows = new int[this.height];
+      this.rowChanged = new boolean[this.height];
       for (int r = 0; r < this.height; r += 1) {
-        piece = this.board.get(c).get(r);
-        scene.placeImageXY(
-            piece.draw(this.findDistance(piece, this.board.get(this.powerCol).get(this.powerRow)),
-                this.radius),
-            c * 50 + 25, r * 50 + 25);
+        this.composeRow(r, 1, 0, this.width, -1);
+      }
+      this.composeRows(1, 0, this.height, -1);
+      for (int i = 0; i < this.dirtyCount; i += 1) {
+        this.dirty[this.dirtyTiles[i]] = false;
+      }
+      this.dirtyCount = 0;
+    }
+    int rowCount = 0;
+    for (int i = 0; i < this.dirtyCount; i += 1) {
+      int index = this.dirtyTiles[i];
+      int r = index / this.width;
+      this.dirty[index] = false;
+      this.composeRow(r, 1, 0, this.width, index % this.width);
+      if (!this.rowChanged[r]) {
+        this.rowChanged[r] = true;
+        this.dirtyRows[rowCount] = r;
+        rowCount += 1;
+      }
+    }
+    this.dirtyCount = 0;
+    for (int i = 0; i < rowCount; i += 1) {
+      this.rowChanged[this.dirtyRows[i]] = false;
+      this.composeRows(1, 0, this.height, this.dirtyRows[i]);
+    }
+  }
 
+  // EFFECT: rebuilds the given node of the given row's tree, which joins the
+  // tiles from column lo up to (not including) column hi, redrawing only the
+  // tile in column c (or every tile, if c is negative)
+  void composeRow(int r, int node, int lo, int hi, int c) {
+    WorldImage[] tree = this.rowImages[r];
+    if (hi - lo == 1) {
+      int index = r * this.width + lo;
+      tree[node] = GamePiece.sprite(this.board.tiles[index], this.distance[index], this.radius);
+    }
+    else {
+      int mid = (lo + hi) / 2;
+      if (c < mid) {
+        this.composeRow(r, 2 * node, lo, mid, c);
+      }
+      if (c < 0 || c >= mid) {
+        this.composeRow(r, 2 * node + 1, mid, hi, c);
       }
+      tree[node] = new BesideImage(tree[2 * node], tree[2 * node + 1]);
+    }
+  }
+
+  // EFFECT: rebuilds the given node of the board's tree, which joins the rows
+  // from row lo up to (not including) row hi, taking in only the changed
+  // image of row r (or every row, if r is negative)
+  void composeRows(int node, int lo, int hi, int r) {
+    if (hi - lo == 1) {
+      this.boardImages[node] = this.rowImages[lo][1];
+    }
+    else {
+      int mid = (lo + hi) / 2;
+      if (r < mid) {
+        this.composeRows(2 * node, lo, mid, r);
+      }
+      if (r < 0 || r >= mid) {
+        this.composeRows(2 * node + 1, mid, hi, r);
+      }
+      this.boardImages[node] = new AboveImage(this.boardImages[2 * node],
+          this.boardImages[2 * node + 1]);
     }
-    scene.placeImageXY(new TextImage("Time: " + this.tickNum, 24, Color.WHITE), scene.width / 2,
-        15);
-    return scene;
   }
 
   // displays the grid of gamepieces and a message indicating the game is over
@@ -411,12 +929,12 @@ class PowerSupply extends World {
   }
 
   // EFFECT: handles user mouse clicks, specifically by rotating game pieces and
-  // updating the resulting graph
+  // updating which are lit
+  // NOTE: power flows along connections read from the packed tiles, so a
+  // click allocates nothing
   public void onMouseClicked(Posn p) {
     if (p.x > 0 && p.x < this.width * 50 && p.y > 0 && p.y < this.height * 50) {
-      this.board.get(p.x / 50).get(p.y / 50).rotate();
-      this.updatePieceEdges();
-      this.sendPower(this.powerCol, this.powerRow, this.radius);
+      this.rotateAt(p.x / 50, p.y / 50);
       if (this.gameWon()) {
         this.endOfWorld("YOU WIN!");
       }
@@ -424,154 +942,134 @@ class PowerSupply extends World {
   }
 
   // EFFECT: handles user key presses, specifically by moving the power station
+  // along a connection in the direction of the arrow pressed, or undoing or
+  // redoing a move
+  // NOTE: each of those updates the lit pieces itself, so a key that changes
+  // nothing relights nothing
   public void onKeyEvent(String key) {
-    GamePiece stationPiece = this.board.get(this.powerCol).get(this.powerRow);
-    if (key.equals("left")) {
-      if (this.powerCol > 0 && this.board.get(this.powerCol - 1).get(this.powerRow).right
-          && stationPiece.left) {
-        stationPiece.powerStation = false;
-        this.powerCol -= 1;
-      }
+    Integer direction = KEY_DIRECTIONS.get(key);
+    boolean moved = false;
+    if (direction != null) {
+      moved = this.moveStation(direction);
     }
-    else if (key.equals("up")) {
-      if (this.powerRow > 0 && this.board.get(this.powerCol).get(this.powerRow - 1).bottom
-          && stationPiece.top) {
-        stationPiece.powerStation = false;
-        this.powerRow -= 1;
-      }
+    else if (key.equals(UNDO_KEY)) {
+      moved = this.undo();
     }
-    else if (key.equals("right")) {
-      if (this.powerCol < this.width - 1
-          && this.board.get(this.powerCol + 1).get(this.powerRow).left && stationPiece.right) {
-        stationPiece.powerStation = false;
-        this.powerCol += 1;
-      }
-    }
-    else if (key.equals("down")) {
-      if (this.powerRow < this.height - 1
-          && this.board.get(this.powerCol).get(this.powerRow + 1).top && stationPiece.bottom) {
-        stationPiece.powerStation = false;
-        this.powerRow += 1;
-      }
+    else if (key.equals(REDO_KEY)) {
+      moved = this.redo();
     }
-    this.board.get(powerCol).get(powerRow).powerStation = true;
-    this.sendPower(this.powerCol, this.powerRow, this.radius);
-    if (this.gameWon()) {
+    if (moved && this.gameWon()) {
       this.endOfWorld("YOU WIN!");
     }
   }
 
-}
-
-// represents a tile in the game, which can connect to any of its surrounding
-// tiles and be powered or unpowered
-class GamePiece {
-  Random rand;
-  // in logical coordinates, with the origin
-  // at the top-left corner of the screen
-  int row;
-  int col;
-  // whether this GamePiece is connected to the
-  // adjacent left, right, top, or bottom pieces
-  boolean left;
-  boolean top;
-  boolean right;
-  boolean bottom;
-  // whether the power station is on this piece
-  boolean powerStation;
-  // is this piece receiving power from the power station?
-  boolean itsLit;
-  ArrayList<Edge> edges;
+  // EFFECT: rotates the piece at the given column and row clockwise, updates
+  // which pieces are lit, and records the move
+  void rotateAt(int c, int r) {
+    this.turn(r * this.width + c, 1);
+    this.moves.record(r * this.width + c, MoveLog.ROTATE, this.tickNum);
+  }
 
-  GamePiece(int row, int col, boolean left, boolean top, boolean right, boolean bottom,
-      boolean powerStation, Random rand) {
-    this.rand = rand;
-    this.row = row;
-    this.col = col;
-    this.left = left;
-    this.top = top;
-    this.right = right;
-    this.bottom = bottom;
-    this.powerStation = powerStation;
-    this.itsLit = false;
-    this.edges = new ArrayList<Edge>();
+  // EFFECT: moves the power station along a connection in the given direction
+  // (0 = left, 1 = top, 2 = right, 3 = bottom), sends power from it, and
+  // records the move, returning whether there was a connection to move along
+  boolean moveStation(int direction) {
+    int station = this.powerRow * this.width + this.powerCol;
+    if (!this.stepStation(direction)) {
+      return false;
+    }
+    this.moves.record(station, MoveLog.STATION + direction, this.tickNum);
+    return true;
   }
 
-  // EFFECT: rotates this game piece 90 degrees clockwise, updating all of its
-  // connections accordingly
-  void rotate() {
-    boolean prevLeft = this.left;
-    boolean prevTop = this.top;
-    boolean prevRight = this.right;
-    this.left = this.bottom;
-    this.top = prevLeft;
-    this.right = prevTop;
-    this.bottom = prevRight;
+  // EFFECT: moves the power station along a connection in the given direction
+  // and sends power from it, without recording the move, returning whether
+  // there was a connection to move along
+  boolean stepStation(int direction) {
+    int next = this.connectedTo(this.powerRow * this.width + this.powerCol, direction);
+    if (next < 0) {
+      return false;
+    }
+    this.placeStation(next);
+    this.sendPower(this.powerCol, this.powerRow, this.radius);
+    return true;
   }
 
-  // EFFECT: adds an edge (from this gamepiece to the given one) to this
-  // gamepiece's list of edges
-  void addEdge(GamePiece piece) {
-    this.edges.add(new Edge(this, piece, this.rand));
+  // EFFECT: rotates the piece at the given index clockwise the given number of
+  // times, and updates which pieces are lit, without recording the move
+  void turn(int index, int turns) {
+    for (int k = 0; k < turns; k += 1) {
+      this.board.rotate(index);
+    }
+    this.markDirty(index);
+    this.updatePowerAt(index % this.width, index / this.width);
   }
 
-  // displays this gamepiece
-  WorldImage draw(int distToStation, int radius) {
-    Color color = Color.GRAY;
-    if (this.itsLit) {
-      int alpha = 255 - (int) ((double) (distToStation) / (double) (radius) * 255);
-      if (alpha > 25) {
-        color = new Color(255, 255, 0, alpha);
-      }
-      else {
-        color = new Color(255, 255, 0, 25);
-      }
+  // EFFECT: undoes the last move in effect, by rotating its tile back or
+  // moving the station back to where it was, returning whether there was one
+  boolean undo() {
+    if (!this.moves.canUndo()) {
+      return false;
     }
-    WorldImage img = new RectangleImage(50, 50, "solid", Color.DARK_GRAY);
-    img = new OverlayImage(new RectangleImage(50, 50, "outline", Color.BLACK), img);
-    if (this.left) {
-      img = new OverlayImage(new RectangleImage(25, 5, "solid", color).movePinhole(12, 0), img);
+    this.moves.cursor -= 1;
+    int tile = this.moves.tiles[this.moves.cursor];
+    if (this.moves.actions[this.moves.cursor] == MoveLog.ROTATE) {
+      this.turn(tile, 3);
     }
-    if (this.top) {
-      img = new OverlayImage(new RectangleImage(5, 25, "solid", color).movePinhole(0, 12), img);
+    else {
+      this.placeStation(tile);
+      this.sendPower(this.powerCol, this.powerRow, this.radius);
     }
-    if (this.right) {
-      img = new OverlayImage(new RectangleImage(25, 5, "solid", color).movePinhole(-12, 0), img);
+    return true;
+  }
+
+  // EFFECT: makes the last undone move again, returning whether there was one
+  boolean redo() {
+    if (!this.moves.canRedo()) {
+      return false;
     }
-    if (this.bottom) {
-      img = new OverlayImage(new RectangleImage(5, 25, "solid", color).movePinhole(0, -12), img);
+    int tile = this.moves.tiles[this.moves.cursor];
+    int action = this.moves.actions[this.moves.cursor];
+    if (action == MoveLog.ROTATE) {
+      this.turn(tile, 1);
     }
-    if (this.powerStation) {
-      img = new OverlayImage(new StarImage(20, 7, OutlineMode.SOLID, Color.ORANGE), img);
-      img = new OverlayImage(new StarImage(20, 7, OutlineMode.OUTLINE, Color.RED), img);
+    else {
+      this.placeStation(this.adjacentTo(tile, action - MoveLog.STATION));
+      this.sendPower(this.powerCol, this.powerRow, this.radius);
     }
-    return img;
+    this.moves.cursor += 1;
+    return true;
   }
-}
-
-// represents an edge on the graph of pieces in this game
-class Edge {
-  GamePiece fromNode;
-  GamePiece toNode;
-  int weight;
 
-  Edge(GamePiece fromNode, GamePiece toNode, Random rand) {
-    this.fromNode = fromNode;
-    this.toNode = toNode;
-    this.weight = rand.nextInt(1000);
+  // returns a new game generated at this game's size from its seed, with the
+  // station starting where this game's did, after making every move in effect
+  // in this game's log, at the ticks they were made
+  // NOTE: a game is generated and scrambled entirely from its seed, so this
+  // rebuilds this game as it stands, including its own log
+  PowerSupply rebuild() {
+    if (!this.seeded) {
+      throw new IllegalArgumentException("Only a game generated from a seed can be rebuilt.");
+    }
+    PowerSupply game = new PowerSupply(this.width, this.height, this.seed, this.startAtCenter);
+    game.replay(this.moves);
+    return game;
   }
 
-  // convenience constructor for testing
-  Edge(GamePiece fromNode, GamePiece toNode, int weight) {
-    this.fromNode = fromNode;
-    this.toNode = toNode;
-    this.weight = weight;
+  // EFFECT: makes every move in effect in the given log, at the ticks they
+  // were made, recording them in this game's own log
+  void replay(MoveLog log) {
+    this.moves.reserve(this.moves.cursor + log.cursor);
+    for (int n = 0; n < log.cursor; n += 1) {
+      this.tickNum = log.ticks[n];
+      if (log.actions[n] == MoveLog.ROTATE) {
+        this.rotateAt(log.tiles[n] % this.width, log.tiles[n] / this.width);
+      }
+      else {
+        this.moveStation(log.actions[n] - MoveLog.STATION);
+      }
+    }
   }
 
-  // returns the weight of this edge as a string
-  public String toString() {
-    return "" + this.weight;
-  }
 }
 
 class ExamplesPowerSupply {
@@ -586,23 +1084,12 @@ class ExamplesPowerSupply {
   GamePiece p8;
   GamePiece p9;
   GamePiece p1a;
-  GamePiece p2a;
-  GamePiece p3a;
-  GamePiece p4a;
   GamePiece p5a;
-  GamePiece p6a;
-  GamePiece p7a;
-  GamePiece p8a;
-  GamePiece p9a;
   ArrayList<GamePiece> nodes1;
   ArrayList<GamePiece> nodes2;
   ArrayList<GamePiece> nodes3;
   ArrayList<GamePiece> nodes4;
-  ArrayList<GamePiece> nodes5;
-  ArrayList<GamePiece> nodes6;
-  ArrayList<GamePiece> nodes7;
   ArrayList<ArrayList<GamePiece>> board1;
-  ArrayList<ArrayList<GamePiece>> board2;
   Edge e1;
   Edge e2;
   Edge e3;
@@ -627,19 +1114,15 @@ class ExamplesPowerSupply {
   Edge e22;
   Edge e23;
   Edge e24;
-  Edge e25;
-  Edge e26;
   Edge e27;
   Edge e28;
   Edge e29;
   ArrayList<Edge> edges1;
-  ArrayList<Edge> edges2;
   ArrayList<Edge> edges3;
-  ArrayList<Edge> edges4;
   ArrayList<Edge> edges3Heap;
   ArrayList<Edge> mst1;
-  HashMap<GamePiece, GamePiece> map1;
-  HashMap<GamePiece, GamePiece> map2;
+  int[] parents1;
+  int[] ranks1;
   PowerSupply game1;
   PowerSupply game2;
   WorldImage i1;
@@ -651,24 +1134,17 @@ class ExamplesPowerSupply {
 
   void init() {
     this.testRand = new Random(75);
-    this.p1 = new GamePiece(0, 0, false, true, false, true, false, this.testRand);
-    this.p2 = new GamePiece(1, 0, false, true, true, true, false, this.testRand);
-    this.p3 = new GamePiece(2, 0, false, true, false, true, false, this.testRand);
-    this.p4 = new GamePiece(0, 1, false, true, false, true, false, this.testRand);
-    this.p5 = new GamePiece(1, 1, true, true, true, true, true, this.testRand);
-    this.p6 = new GamePiece(2, 1, false, true, false, true, false, this.testRand);
-    this.p7 = new GamePiece(0, 2, false, true, false, true, false, this.testRand);
-    this.p8 = new GamePiece(1, 2, true, true, false, true, false, this.testRand);
-    this.p9 = new GamePiece(2, 2, false, true, false, true, false, this.testRand);
-    this.p1a = new GamePiece(0, 0, false, false, false, false, true, this.testRand);
-    this.p2a = new GamePiece(1, 0, false, false, false, false, false, this.testRand);
-    this.p3a = new GamePiece(2, 0, false, false, false, false, false, this.testRand);
-    this.p4a = new GamePiece(0, 1, false, false, false, false, false, this.testRand);
-    this.p5a = new GamePiece(1, 1, false, false, false, false, false, this.testRand);
-    this.p6a = new GamePiece(2, 1, false, false, false, false, false, this.testRand);
-    this.p7a = new GamePiece(0, 2, false, false, false, false, false, this.testRand);
-    this.p8a = new GamePiece(1, 2, false, false, false, false, false, this.testRand);
-    this.p9a = new GamePiece(2, 2, false, false, false, false, false, this.testRand);
+    this.p1 = new GamePiece(0, 0, false, true, false, true, false);
+    this.p2 = new GamePiece(1, 0, false, true, true, true, false);
+    this.p3 = new GamePiece(2, 0, false, true, false, true, false);
+    this.p4 = new GamePiece(0, 1, false, true, false, true, false);
+    this.p5 = new GamePiece(1, 1, true, true, true, true, true);
+    this.p6 = new GamePiece(2, 1, false, true, false, true, false);
+    this.p7 = new GamePiece(0, 2, false, true, false, true, false);
+    this.p8 = new GamePiece(1, 2, true, true, false, true, false);
+    this.p9 = new GamePiece(2, 2, false, true, false, true, false);
+    this.p1a = new GamePiece(0, 0, false, false, false, false, true);
+    this.p5a = new GamePiece(1, 1, false, false, false, false, false);
     this.nodes1 = new ArrayList<GamePiece>();
     this.nodes1.add(this.p1);
     this.nodes1.add(this.p2);
@@ -691,26 +1167,10 @@ class ExamplesPowerSupply {
     this.nodes4.add(this.p7);
     this.nodes4.add(this.p8);
     this.nodes4.add(this.p9);
-    this.nodes5 = new ArrayList<GamePiece>();
-    this.nodes5.add(this.p1a);
-    this.nodes5.add(this.p2a);
-    this.nodes5.add(this.p3a);
-    this.nodes6 = new ArrayList<GamePiece>();
-    this.nodes6.add(this.p4a);
-    this.nodes6.add(this.p5a);
-    this.nodes6.add(this.p6a);
-    this.nodes7 = new ArrayList<GamePiece>();
-    this.nodes7.add(this.p7a);
-    this.nodes7.add(this.p8a);
-    this.nodes7.add(this.p9a);
     this.board1 = new ArrayList<ArrayList<GamePiece>>();
     this.board1.add(this.nodes1);
     this.board1.add(this.nodes2);
     this.board1.add(this.nodes3);
-    this.board2 = new ArrayList<ArrayList<GamePiece>>();
-    this.board2.add(this.nodes5);
-    this.board2.add(this.nodes6);
-    this.board2.add(this.nodes7);
     this.e1 = new Edge(this.p5, this.p2, 886);
     this.e2 = new Edge(this.p5, this.p4, 700);
     this.e3 = new Edge(this.p5, this.p8, 805);
@@ -735,8 +1195,6 @@ class ExamplesPowerSupply {
     this.e22 = new Edge(this.p8, this.p9, 210);
     this.e23 = new Edge(this.p9, this.p6, 644);
     this.e24 = new Edge(this.p9, this.p8, 471);
-    this.e25 = new Edge(this.p1, this.p2, 774);
-    this.e26 = new Edge(this.p7, this.p8, 700);
     this.e27 = new Edge(this.p2, this.p1, 82);
     this.e28 = new Edge(this.p2, this.p5, 375);
     this.e29 = new Edge(this.p2, this.p3, 992);
@@ -744,8 +1202,6 @@ class ExamplesPowerSupply {
     this.edges1.add(this.e27);
     this.edges1.add(this.e28);
     this.edges1.add(this.e29);
-    this.edges2 = new ArrayList<Edge>();
-    this.edges2.add(this.e26);
     this.edges3 = new ArrayList<Edge>();
     this.edges3.add(this.e6);
     this.edges3.add(this.e7);
@@ -771,8 +1227,6 @@ class ExamplesPowerSupply {
     this.edges3.add(this.e22);
     this.edges3.add(this.e23);
     this.edges3.add(this.e24);
-    this.edges4 = new ArrayList<Edge>();
-    this.edges4.add(this.e25);
     this.mst1 = new ArrayList<Edge>();
     this.mst1.add(this.e4);
     this.mst1.add(this.e7);
@@ -782,17 +1236,14 @@ class ExamplesPowerSupply {
     this.mst1.add(this.e14);
     this.mst1.add(this.e10);
     this.mst1.add(this.e5);
-    this.map1 = new HashMap<GamePiece, GamePiece>();
-    this.map1.put(this.p1, this.p1);
-    this.map1.put(this.p2, this.p3);
-    this.map1.put(this.p3, this.p3);
-    this.map2 = new HashMap<GamePiece, GamePiece>();
-    this.map2.put(this.p5, this.p6);
-    this.map2.put(this.p6, this.p6);
-    this.map2.put(this.p2, this.p5);
-    this.map2.put(this.p4, this.p5);
+    // disjoint-set forest over a 3x3 board: {0, 1, 2}, {3, 4, 5, 6}, {7}, {8}
+    this.parents1 = new int[] { 2, 2, 2, 4, 4, 4, 5, 7, 8 };
+    this.ranks1 = new int[] { 0, 0, 1, 0, 2, 1, 0, 0, 0 };
     this.game1 = new PowerSupply(8, 8); // EDIT SIZE OF MAIN GAME HERE
-    this.game2 = new PowerSupply(3, 3, this.board1, this.nodes4, this.edges3, this.testRand);
+    this.game2 = new PowerSupply(3, 3, this.board1, this.edges3, this.testRand);
+    // a station whose power reaches only two connections away (rather than
+    // the radius of 3 measured on these pipes), so where it stands matters:
+    this.game2.radius = 1;
     this.i1 = new OverlayImage(new RectangleImage(5, 25, "solid", Color.GRAY).movePinhole(0, -12),
         new OverlayImage(new RectangleImage(5, 25, "solid", Color.GRAY).movePinhole(0, 12),
             new OverlayImage(new RectangleImage(50, 50, "outline", Color.BLACK),
@@ -865,7 +1316,9 @@ class ExamplesPowerSupply {
 
   void testDummyBoard(Tester t) {
     this.init();
-    t.checkExpect(this.game2.dummyBoard(), this.board2);
+    PackedBoard expected = new PackedBoard(3, 3);
+    expected.setStation(0, true);
+    t.checkExpect(this.game2.dummyBoard(), expected);
   }
 
   void testSetNodes(Tester t) {
@@ -881,27 +1334,133 @@ class ExamplesPowerSupply {
   void testSetMST(Tester t) {
     this.init();
     t.checkExpect(this.game2.setMST(), this.mst1);
+    // a generated board's tree spans every node:
+    PowerSupply generated = new PowerSupply(40, 30, new Random(4));
+    generated.edges = generated.setEdges();
+    t.checkExpect(generated.setMST().size(), 1199);
   }
 
-  void testMultipleSelfReps(Tester t) {
+  void testGenerateTree(Tester t) {
     this.init();
-    t.checkExpect(this.game2.multipleSelfReps(this.map1), true);
-    t.checkExpect(this.game2.multipleSelfReps(this.map2), false);
+    // BEFORE: whatever the gamepieces were connected to is replaced
+    this.game2.pieceAt(0).setMask(15);
+    // CHANGE
+    this.game2.generateTree();
+    // AFTER: the tree spans every node, and the gamepieces are connected along
+    // it, keeping the station where it was
+    t.checkExpect(this.game2.pack().isSpanningTree(), true);
+    t.checkExpect(this.p5.hasStation(), true);
+    // a tree just like the one setMST and setConnections build:
+    PowerSupply generated = new PowerSupply(12, 9, new Random(6));
+    generated.board = generated.dummyBoard();
+    generated.generateTree();
+    PowerSupply built = new PowerSupply(12, 9, new Random(6));
+    built.board = built.dummyBoard();
+    built.edges = built.setEdges();
+    built.mst = built.setMST();
+    built.setConnections();
+    t.checkExpect(generated.pack().isSpanningTree(), true);
+    t.checkExpect(built.pack().isSpanningTree(), true);
+    // without making an Edge along the way:
+    t.checkExpect(generated.edges.size(), 0);
+    t.checkExpect(generated.mst.size(), 0);
+  }
+
+  void testIndexOf(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.indexOf(this.p1), 0);
+    t.checkExpect(this.game2.indexOf(this.p4), 1);
+    t.checkExpect(this.game2.indexOf(this.p8), 5);
+    t.checkExpect(this.game2.indexOf(this.p9), 8);
   }
 
   void testFindRep(Tester t) {
     this.init();
-    t.checkExpect(this.game2.findRep(this.map1, this.p3), this.p3);
-    t.checkExpect(this.game2.findRep(this.map2, this.p5), this.p6);
-    t.checkExpect(this.game2.findRep(this.map2, this.p4), this.p6);
-    t.checkExpect(this.game2.findRep(this.map2, this.p6), this.p6);
+    t.checkExpect(this.game2.findRep(this.parents1, 2), 2);
+    t.checkExpect(this.game2.findRep(this.parents1, 7), 7);
+    t.checkExpect(this.game2.findRep(this.parents1, 3), 4);
+    // BEFORE
+    t.checkExpect(this.parents1[6], 5);
+    // CHANGE
+    t.checkExpect(this.game2.findRep(this.parents1, 6), 4);
+    // AFTER: path was compressed
+    t.checkExpect(this.parents1[6], 4);
+  }
+
+  void testUnion(Tester t) {
+    this.init();
+    // already in the same set:
+    t.checkExpect(this.game2.union(this.parents1, this.ranks1, 0, 1), false);
+    // shallower tree hangs under the deeper one:
+    t.checkExpect(this.game2.union(this.parents1, this.ranks1, 0, 6), true);
+    t.checkExpect(this.parents1[2], 4);
+    t.checkExpect(this.ranks1[4], 2);
+    // equal ranks grow the new representative:
+    t.checkExpect(this.game2.union(this.parents1, this.ranks1, 7, 8), true);
+    t.checkExpect(this.parents1[8], 7);
+    t.checkExpect(this.ranks1[7], 1);
+  }
+
+  // lists the weights of the given edges in the given order, like an ArrayList
+  String weightsInOrder(ArrayList<Edge> edges, int[] order) {
+    String result = "[";
+    for (int i = 0; i < order.length; i += 1) {
+      if (i > 0) {
+        result += ", ";
+      }
+      result += edges.get(order[i]).weight;
+    }
+    return result + "]";
+  }
+
+  void testSortEdges(Tester t) {
+    this.init();
+    ArrayList<Edge> unsorted = new ArrayList<Edge>(this.game2.edges);
+    t.checkExpect(this.weightsInOrder(this.game2.edges, this.game2.sortEdges()),
+        "[23, 82, 146, 156, 171, 210, 316, 375, 433, 446, 469, 471, 476, 492, 513, 644, 700, 754,"
+            + " 774, 805, 886, 935, 974, 992]");
+    // the edges themselves are never reordered:
+    t.checkExpect(this.game2.edges, unsorted);
+    // weights outside the generated range fall back to heapsort:
+    this.game2.edges.add(new Edge(this.p1, this.p2, 5000));
+    this.game2.edges.add(new Edge(this.p2, this.p3, -5));
+    t.checkExpect(this.weightsInOrder(this.game2.edges, this.game2.sortEdges()),
+        "[-5, 23, 82, 146, 156, 171, 210, 316, 375, 433, 446, 469, 471, 476, 492, 513, 644, 700,"
+            + " 754, 774, 805, 886, 935, 974, 992, 5000]");
+  }
+
+  void testCountingSortEdges(Tester t) {
+    this.init();
+    t.checkExpect(this.weightsInOrder(this.game2.edges, this.game2.countingSortEdges()),
+        "[23, 82, 146, 156, 171, 210, 316, 375, 433, 446, 469, 471, 476, 492, 513, 644, 700, 754,"
+            + " 774, 805, 886, 935, 974, 992]");
+    // equal weights keep their original order:
+    this.game2.edges = this.edges1;
+    this.game2.edges.add(this.e8);
+    t.checkExpect(this.game2.countingSortEdges(), new int[] { 0, 1, 3, 2 });
   }
 
   void testHeapsortEdges(Tester t) {
     this.init();
-    t.checkExpect(this.game2.heapsortEdges().toString(),
+    ArrayList<Edge> unsorted = new ArrayList<Edge>(this.game2.edges);
+    t.checkExpect(this.weightsInOrder(this.game2.edges, this.game2.heapsortEdges()),
         "[23, 82, 146, 156, 171, 210, 316, 375, 433, 446, 469, 471, 476, 492, 513, 644, 700, 754,"
             + " 774, 805, 886, 935, 974, 992]");
+    t.checkExpect(this.game2.edges, unsorted);
+    this.game2.edges = new ArrayList<Edge>();
+    t.checkExpect(this.game2.heapsortEdges(), new int[] {});
+  }
+
+  void testSiftDown(Tester t) {
+    this.init();
+    this.game2.edges = this.edges1; // weights 82, 375, 992
+    int[] order = new int[] { 0, 1, 2 };
+    this.game2.siftDown(order, 0, 3);
+    t.checkExpect(order, new int[] { 2, 1, 0 });
+    order = new int[] { 0, 1, 2 };
+    // children beyond the heap size are ignored:
+    this.game2.siftDown(order, 0, 2);
+    t.checkExpect(order, new int[] { 1, 0, 2 });
   }
 
   void testSetConnections(Tester t) {
@@ -909,115 +1468,483 @@ class ExamplesPowerSupply {
 
     // set up board and MST
     this.game2.board = this.game2.dummyBoard();
-    this.game2.nodes = this.game2.setNodes();
     this.game2.edges = this.game2.setEdges();
     this.game2.mst = this.game2.setMST();
 
     // BEFORE
-    t.checkExpect(this.game2.board.get(1).get(1).bottom, false);
-    t.checkExpect(this.game2.board.get(1).get(2).top, false);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.BOTTOM, 0);
+    t.checkExpect(this.game2.pieceAt(1, 2).mask() & PackedBoard.TOP, 0);
     // CHANGE
     this.game2.setConnections();
     // AFTER
-    t.checkExpect(this.game2.board.get(1).get(1).bottom, true);
-    t.checkExpect(this.game2.board.get(1).get(2).top, true);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.BOTTOM, PackedBoard.BOTTOM);
+    t.checkExpect(this.game2.pieceAt(1, 2).mask() & PackedBoard.TOP, PackedBoard.TOP);
+  }
+
+  void testPack(Tester t) {
+    this.init();
+    this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
+    PackedBoard packed = this.game2.pack();
+    t.checkExpect(packed.width, 3);
+    t.checkExpect(packed.height, 3);
+    t.checkExpect(packed.connections(0), this.p1.mask());
+    t.checkExpect(packed.connections(5), this.p8.mask());
+    t.checkExpect(packed.isLit(3), true);
+    t.checkExpect(packed.isLit(5), false);
+    t.checkExpect(packed.hasStation(4), true);
+    t.checkExpect(packed.hasStation(0), false);
+  }
+
+  void testUnpack(Tester t) {
+    this.init();
+    PackedBoard packed = new PackedBoard(3, 3);
+    packed.setConnections(0, PackedBoard.RIGHT);
+    packed.setConnections(1, PackedBoard.LEFT | PackedBoard.BOTTOM);
+    packed.setStation(7, true);
+    // CHANGE
+    this.game2.unpack(packed);
+    // AFTER
+    t.checkExpect(this.p1.mask(), PackedBoard.RIGHT);
+    t.checkExpect(this.p4.mask(), PackedBoard.LEFT | PackedBoard.BOTTOM);
+    t.checkExpect(this.p5.mask(), 0);
+    t.checkExpect(this.p6.hasStation(), true);
+    t.checkExpect(this.p5.hasStation(), false);
+    t.checkExpect(this.game2.powerCol, 1);
+    t.checkExpect(this.game2.powerRow, 2);
+  }
+
+  void testPackedConstructor(Tester t) {
+    PackedBoard solved = new PowerSupply(9, 7, new Random(2)).pack();
+    for (int i = 0; i < solved.tiles.length; i += 1) {
+      solved.setStation(i, i == 10);
+    }
+    PowerSupply game = new PowerSupply(solved, new Random(3));
+    t.checkExpect(game.width, 9);
+    t.checkExpect(game.height, 7);
+    t.checkExpect(game.powerCol, 1);
+    t.checkExpect(game.powerRow, 1);
+    t.checkExpect(game.pieceAt(1, 1).isLit(), true);
+    // every tile is some rotation of its solved shape:
+    boolean rotationsOfSolved = true;
+    for (int i = 0; i < solved.tiles.length; i += 1) {
+      int mask = solved.connections(i);
+      boolean found = false;
+      for (int k = 0; k < 4; k += 1) {
+        found = found || mask == game.pieceAt(i).mask();
+        mask = PackedBoard.ROTATED[mask];
+      }
+      rotationsOfSolved = rotationsOfSolved && found;
+    }
+    t.checkExpect(rotationsOfSolved, true);
+  }
+
+  void testGeneratedConstructor(Tester t) {
+    GeneratedLevel level = new BoardGenerator(8, 6).generate(21);
+    PowerSupply game = new PowerSupply(level, new Random(4));
+    t.checkExpect(game.width, 8);
+    t.checkExpect(game.height, 6);
+    t.checkExpect(game.pieceAt(0, 0).hasStation(), true);
+    // the radius is that of the solution, not of the scrambled board:
+    t.checkExpect(game.radius, new PowerSupply(level.solved, new Random(4)).radius);
+    t.checkExpect(game.pack().tiles.length, 48);
+    boolean matchesLevel = true;
+    PackedBoard scrambled = level.scrambled();
+    for (int i = 0; i < scrambled.tiles.length; i += 1) {
+      matchesLevel = matchesLevel && game.pieceAt(i).mask() == scrambled.connections(i);
+    }
+    t.checkExpect(matchesLevel, true);
+    t.checkExpect(game.pieceAt(0, 0).isLit(), true);
   }
 
   void testScrambleBoard(Tester t) {
     this.init();
     // BEFORE
-    t.checkExpect(this.game2.board.get(1).get(1).bottom, true);
-    t.checkExpect(this.game2.board.get(1).get(1).left, true);
-    t.checkExpect(this.game2.board.get(2).get(2).right, false);
-    t.checkExpect(this.game2.board.get(0).get(2).bottom, true);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.BOTTOM, PackedBoard.BOTTOM);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.LEFT, PackedBoard.LEFT);
+    t.checkExpect(this.game2.pieceAt(2, 2).mask() & PackedBoard.RIGHT, 0);
+    t.checkExpect(this.game2.pieceAt(0, 2).mask() & PackedBoard.BOTTOM, PackedBoard.BOTTOM);
     // CHANGE
     this.game2.scrambleBoard();
     // AFTER
-    t.checkExpect(this.game2.board.get(1).get(1).bottom, true);
-    t.checkExpect(this.game2.board.get(1).get(1).left, true);
-    t.checkExpect(this.game2.board.get(2).get(2).right, true);
-    t.checkExpect(this.game2.board.get(0).get(2).bottom, false);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.BOTTOM, PackedBoard.BOTTOM);
+    t.checkExpect(this.game2.pieceAt(1, 1).mask() & PackedBoard.LEFT, PackedBoard.LEFT);
+    t.checkExpect(this.game2.pieceAt(2, 2).mask() & PackedBoard.RIGHT, PackedBoard.RIGHT);
+    t.checkExpect(this.game2.pieceAt(0, 2).mask() & PackedBoard.BOTTOM, 0);
   }
 
-  void testFindRadius(Tester t) {
+  void testRotateBoard(Tester t) {
     this.init();
-    // give gamepieces edges for the findRadius helpers to iterate through
-    this.game2.updatePieceEdges();
+    // CHANGE
+    this.game2.rotateBoard(new byte[] { 1, 0, 0, 0, 4, 2, 0, 0, 3 });
+    // AFTER
+    t.checkExpect(this.p1.mask(), PackedBoard.LEFT | PackedBoard.RIGHT);
+    t.checkExpect(this.p4.mask(), PackedBoard.TOP | PackedBoard.BOTTOM);
+    t.checkExpect(this.p5.mask(), 15);
+    t.checkExpect(this.p8.mask(), PackedBoard.RIGHT | PackedBoard.TOP | PackedBoard.BOTTOM);
+    t.checkExpect(this.p9.mask(), PackedBoard.LEFT | PackedBoard.RIGHT);
+  }
 
-    // test
+  void testFindRadius(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.findRadius(), 3);
+    // the radius is kept until the board is solved again:
+    int searchNum = this.game2.searchNum;
     t.checkExpect(this.game2.findRadius(), 3);
+    t.checkExpect(this.game2.searchNum, searchNum);
+    this.game2.diameter = 10;
+    t.checkExpect(this.game2.findRadius(), 6);
+    this.game2.measured = false;
+    t.checkExpect(this.game2.findRadius(), 3);
+    t.checkExpect(this.game2.searchNum, searchNum + 2);
   }
 
-  void testFurthestFrom(Tester t) {
+  void testMeasureTree(Tester t) {
+    this.init();
+    // CHANGE
+    this.game2.measureTree();
+    // AFTER: the longest path runs between two tiles 4 connections apart
+    t.checkExpect(this.game2.diameter, 4);
+    t.checkExpect(this.game2.measured, true);
+    this.game2.search(this.game2.diameterStart, -1);
+    t.checkExpect(this.game2.searchDepth[this.game2.diameterEnd], 4);
+    // and the center is 2 connections from either end:
+    t.checkExpect(this.game2.findDistance(this.game2.pieceAt(this.game2.center),
+        this.game2.pieceAt(this.game2.diameterStart)), 2);
+    t.checkExpect(this.game2.findDistance(this.game2.pieceAt(this.game2.center),
+        this.game2.pieceAt(this.game2.diameterEnd)), 2);
+    // on a generated board, nothing is further from the center than half the
+    // diameter (rounded up):
+    PowerSupply game = new PowerSupply(30, 20, new Random(5));
+    game.measureTree();
+    int furthest = game.search(game.center, -1);
+    t.checkExpect(game.searchDepth[furthest], (game.diameter + 1) / 2);
+  }
+
+  void testMoveStationToCenter(Tester t) {
     this.init();
+    // CHANGE
+    this.game2.moveStationToCenter();
+    // AFTER
+    t.checkExpect(this.game2.powerRow * 3 + this.game2.powerCol, this.game2.center);
+    t.checkExpect(this.game2.pieceAt(this.game2.center).hasStation(), true);
+    t.checkExpect(this.game2.pieceAt(0).hasStation(), this.game2.center == 0);
+  }
 
-    // give gamepieces edges to iterate through
-    this.game2.updatePieceEdges();
+  void testStartAtCenter(Tester t) {
+    PowerSupply corner = new PowerSupply(20, 15, new Random(2));
+    PowerSupply centered = new PowerSupply(20, 15, new Random(2), true);
+    t.checkExpect(corner.powerRow + corner.powerCol, 0);
+    t.checkExpect(centered.powerRow * 20 + centered.powerCol, centered.center);
+    t.checkExpect(centered.pieceAt(centered.center).hasStation(), true);
+    t.checkExpect(centered.pieceAt(0).hasStation(), centered.center == 0);
+    t.checkExpect(centered.radius, corner.radius);
+    // once solved, the station at the center lights every tile:
+    centered.autoSolve();
+    t.checkExpect(centered.gameWon(), true);
+  }
+
+  void testFurthestFrom(Tester t) {
+    this.init();
 
     // small-scale test
-    t.checkExpect(this.game2.furthestFrom(this.game2.board.get(0).get(0)),
-        this.game2.board.get(2).get(2));
+    t.checkExpect(this.game2.furthestFrom(this.game2.pieceAt(0, 0)),
+        this.game2.pieceAt(2, 2));
 
     // node is furthest from itself when disconnected from the rest of the graph:
-    this.game2.board.get(1).get(2).rotate();
-    this.game2.updatePieceEdges();
-    t.checkExpect(this.game2.furthestFrom(this.game2.board.get(1).get(2)),
-        this.game2.board.get(1).get(2));
+    this.game2.pieceAt(1, 2).rotate();
+    t.checkExpect(this.game2.furthestFrom(this.game2.pieceAt(1, 2)),
+        this.game2.pieceAt(1, 2));
   }
 
   void testFindDistance(Tester t) {
     this.init();
 
-    // give gamepieces edges to iterate through
-    this.game2.updatePieceEdges();
-
     // test
     t.checkExpect(
-        this.game2.findDistance(this.game2.board.get(0).get(0), this.game2.board.get(1).get(0)), 3);
+        this.game2.findDistance(this.game2.pieceAt(0, 0), this.game2.pieceAt(1, 0)), 3);
     t.checkExpect(
-        this.game2.findDistance(this.game2.board.get(2).get(0), this.game2.board.get(0).get(2)), 4);
+        this.game2.findDistance(this.game2.pieceAt(2, 0), this.game2.pieceAt(0, 2)), 4);
     // pieces are not connected:
-    t.checkExpect(this.game1.findDistance(this.game1.board.get(3).get(5), this.p3), -1);
+    t.checkExpect(this.game1.findDistance(this.game1.pieceAt(3, 5), this.p3), -1);
+  }
+
+  void testSearchFollowsClicks(Tester t) {
+    PackedBoard line = new PackedBoard(3, 1);
+    line.tiles = new byte[] { PackedBoard.RIGHT, PackedBoard.LEFT | PackedBoard.RIGHT,
+        PackedBoard.LEFT | PackedBoard.STATION };
+    PowerSupply game = new PowerSupply(new GeneratedLevel(1, line, new byte[3]), new Random(1));
+    // BEFORE
+    t.checkExpect(game.findDistance(game.pieceAt(0), game.pieceAt(2)), 2);
+    // CHANGE: turn the middle tile across the line
+    game.rotateAt(1, 0);
+    // AFTER: searches see the board as the click left it
+    t.checkExpect(game.connectedTo(0, 2), -1);
+    t.checkExpect(game.findDistance(game.pieceAt(0), game.pieceAt(2)), -1);
+    t.checkExpect(game.furthestFrom(game.pieceAt(0)), game.pieceAt(0));
+  }
+
+  void testSearch(Tester t) {
+    this.init();
+    // searches everything, ending at the furthest tile:
+    t.checkExpect(this.game2.search(0, -1), 8);
+    t.checkExpect(this.game2.searchDepth[8], 4);
+    t.checkExpect(this.game2.searchDepth[4], 2);
+    t.checkExpect(this.game2.searchDepth[1], 3);
+    t.checkExpect(this.game2.searchFrom[0], -1);
+    t.checkExpect(this.game2.searchDepth[this.game2.searchFrom[8]], 3);
+    // stops once the target is reached:
+    int searchNum = this.game2.searchNum;
+    t.checkExpect(this.game2.search(4, 3), 3);
+    t.checkExpect(this.game2.searchNum, searchNum + 1);
+    t.checkExpect(this.game2.searchDepth[3], 1);
+    t.checkExpect(this.game2.searchSeen[8] == this.game2.searchNum, false);
+    // search numbers wrap around without leaving tiles marked as seen:
+    this.game2.searchNum = Integer.MAX_VALUE;
+    t.checkExpect(this.game2.search(0, -1), 8);
+    t.checkExpect(this.game2.searchNum, 1);
+  }
+
+  void testSearchWrapKeepsPower(Tester t) {
+    PowerSupply game = new PowerSupply(6, 6, new Random(3));
+    game.autoSolve();
+    game.sendPower(game.powerCol, game.powerRow, game.radius);
+    int lit = game.litCount;
+    // CHANGE: the search number wraps between two calls to sendPower
+    game.searchNum = Integer.MAX_VALUE;
+    game.search(0, -1);
+    game.rotateAt(0, 0);
+    game.sendPower(game.powerCol, game.powerRow, game.radius);
+    // AFTER: the lit tiles are still exactly those counted
+    int flagged = 0;
+    for (int i = 0; i < 36; i += 1) {
+      if (game.pieceAt(i).isLit()) {
+        flagged += 1;
+      }
+    }
+    t.checkExpect(flagged, game.litCount);
+    t.checkExpect(game.litCount < lit, true);
+  }
+
+  void testPieceAt(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.pieceAt(0), this.p1);
+    t.checkExpect(this.game2.pieceAt(1), this.p4);
+    t.checkExpect(this.game2.pieceAt(5), this.p8);
+    t.checkExpect(this.game1.pieceAt(63), this.game1.pieceAt(7, 7));
+  }
+
+  void testOnBoard(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.onBoard(this.p5), true);
+    t.checkExpect(this.game2.onBoard(this.p5a), false);
+    t.checkExpect(this.game1.onBoard(this.game1.pieceAt(3, 5)), true);
+    GamePiece loose = new GamePiece(3, 0, false, false, false, false, false);
+    t.checkExpect(this.game2.onBoard(loose), false);
   }
 
   void testSendPower(Tester t) {
     this.init();
 
     // BEFORE 1
-    t.checkExpect(this.game2.board.get(0).get(0).itsLit, false);
-    t.checkExpect(this.game2.board.get(0).get(1).itsLit, false);
-    t.checkExpect(this.game2.board.get(2).get(2).itsLit, false);
+    t.checkExpect(this.game2.pieceAt(0, 0).isLit(), false);
+    t.checkExpect(this.game2.pieceAt(0, 1).isLit(), false);
+    t.checkExpect(this.game2.pieceAt(2, 2).isLit(), false);
     // CHANGE 1
     this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
     // AFTER 1
-    t.checkExpect(this.game2.board.get(0).get(0).itsLit, true);
-    t.checkExpect(this.game2.board.get(0).get(1).itsLit, true);
-    t.checkExpect(this.game2.board.get(2).get(2).itsLit, false);
+    t.checkExpect(this.game2.pieceAt(0, 0).isLit(), true);
+    t.checkExpect(this.game2.pieceAt(0, 1).isLit(), true);
+    t.checkExpect(this.game2.pieceAt(2, 2).isLit(), false);
+    t.checkExpect(this.game2.distance, new int[] { 0, -1, -1, 1, 2, -1, 2, -1, -1 });
+    t.checkExpect(this.game2.litCount, 4);
     // BEFORE 2
-    t.checkExpect(this.game2.board.get(2).get(1).itsLit, false);
+    t.checkExpect(this.game2.pieceAt(2, 1).isLit(), false);
     // CHANGE 2
     this.game2.onKeyEvent("down"); // move power station
     this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
     // AFTER 2 / BEFORE 3
-    t.checkExpect(this.game2.board.get(2).get(1).itsLit, true);
+    t.checkExpect(this.game2.pieceAt(2, 1).isLit(), true);
     // CHANGE 3
-    this.game2.board.get(0).get(1).rotate();
-    this.game2.board.get(0).get(1).rotate(); // cut off pipe access
+    this.game2.pieceAt(0, 1).rotate();
+    this.game2.pieceAt(0, 1).rotate(); // cut off pipe access
     this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
     // AFTER 3
-    t.checkExpect(this.game2.board.get(2).get(1).itsLit, false);
+    t.checkExpect(this.game2.pieceAt(2, 1).isLit(), false);
+    t.checkExpect(this.game2.pieceAt(1, 1).isLit(), false);
+    t.checkExpect(this.game2.distance, new int[] { 1, -1, -1, 0, -1, -1, 1, -1, -1 });
+    t.checkExpect(this.game2.litCount, 3);
   }
 
-  void testUpdatePieceEdges(Tester t) {
+  void testSendPowerDistances(Tester t) {
     this.init();
+    this.game2.sendPower(1, 1, 5);
+    t.checkExpect(this.game2.distance, new int[] { 2, 1, 2, 1, 0, 1, 2, 1, 2 });
+    t.checkExpect(this.game2.litCount, 9);
+    // power only reaches radiusLeft + 1 connections away:
+    this.game2.sendPower(0, 0, 2);
+    t.checkExpect(this.game2.distance, new int[] { 0, 3, -1, 1, 2, 3, 2, 3, -1 });
+    t.checkExpect(this.game2.pieceAt(2, 0).isLit(), false);
+    t.checkExpect(this.game2.pieceAt(1, 0).isLit(), true);
+    // a large board with a long spanning tree does not overflow the stack:
+    PowerSupply big = new PowerSupply(300, 300, new Random(7));
+    big.sendPower(0, 0, 300 * 300);
+    t.checkExpect(big.gameWon(), false);
+    t.checkExpect(big.distance[0], 0);
+  }
+
+  void testSpreadPower(Tester t) {
+    this.init();
+    this.game2.sendPower(0, 0, 0);
     // BEFORE
-    t.checkExpect(this.game2.board.get(0).get(1).edges, new ArrayList<Edge>());
-    t.checkExpect(this.game2.board.get(2).get(0).edges, new ArrayList<Edge>());
+    t.checkExpect(this.game2.pieceAt(1, 1).isLit(), false);
     // CHANGE
-    this.game2.updatePieceEdges();
+    this.game2.spreadPower(3, 4);
+    this.game2.spreadPower(0, 4); // already reached, no effect
     // AFTER
-    t.checkExpect(this.game2.board.get(0).get(1).edges, this.edges1);
-    t.checkExpect(this.game2.board.get(2).get(0).edges, this.edges2);
+    t.checkExpect(this.game2.pieceAt(1, 1).isLit(), true);
+    t.checkExpect(this.game2.distance[4], 2);
+    t.checkExpect(this.game2.litTiles[this.game2.litCount - 1], 4);
+    t.checkExpect(this.game2.litCount, 3);
+  }
+
+  void testUpdatePowerAt(Tester t) {
+    this.init();
+    this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
+    // CHANGE 1: cut the station off from the rest of the board
+    this.p2.rotate();
+    this.game2.updatePowerAt(0, 1);
+    // AFTER 1
+    t.checkExpect(this.game2.distance, new int[] { 0, -1, -1, -1, -1, -1, -1, -1, -1 });
+    t.checkExpect(this.p5.isLit(), false);
+    t.checkExpect(this.game2.litCount, 1);
+    // CHANGE 2: reconnect it
+    this.p2.rotate();
+    this.p2.rotate();
+    this.p2.rotate();
+    this.game2.updatePowerAt(0, 1);
+    // AFTER 2
+    t.checkExpect(this.game2.distance, new int[] { 0, -1, -1, 1, 2, -1, 2, -1, -1 });
+    t.checkExpect(this.p5.isLit(), true);
+    t.checkExpect(this.game2.parent[4], 3);
+    t.checkExpect(this.game2.litCount, 4);
+    // CHANGE 3: rotating the station's own tile relights from scratch
+    this.p1.rotate();
+    this.game2.updatePowerAt(0, 0);
+    // AFTER 3
+    t.checkExpect(this.game2.litCount, 1);
+  }
+
+  // rotates random tiles of the given game, checking after each rotation that
+  // updating power around it agrees with relighting the whole board
+  boolean powerMatchesAfterClicks(PowerSupply game, Random clicks, int count) {
+    boolean matches = true;
+    for (int i = 0; i < count; i += 1) {
+      int c = clicks.nextInt(game.width);
+      int r = clicks.nextInt(game.height);
+      game.pieceAt(c, r).rotate();
+      game.updatePowerAt(c, r);
+      int[] incremental = Arrays.copyOf(game.distance, game.distance.length);
+      int lit = game.litCount;
+      for (int j = 0; j < incremental.length; j += 1) {
+        matches = matches && game.pieceAt(j).isLit() == (incremental[j] >= 0);
+      }
+      game.sendPower(game.powerCol, game.powerRow, game.radius);
+      matches = matches && Arrays.equals(incremental, game.distance) && lit == game.litCount;
+    }
+    return matches;
+  }
+
+  void testUpdatePowerAtMatchesSendPower(Tester t) {
+    PowerSupply game = new PowerSupply(12, 9, new Random(11));
+    t.checkExpect(this.powerMatchesAfterClicks(game, new Random(5), 600), true);
+    // with unlimited power, rotations also open and close loops of pipes:
+    game.radius = 1000;
+    game.sendPower(game.powerCol, game.powerRow, game.radius);
+    t.checkExpect(this.powerMatchesAfterClicks(game, new Random(6), 600), true);
+  }
+
+  void testRelaxPower(Tester t) {
+    this.init();
+    this.game2.sendPower(0, 0, 5);
+    // BEFORE
+    t.checkExpect(this.game2.distance[4], 2);
+    // no shorter path:
+    t.checkExpect(this.game2.relaxPower(3, 4), false);
+    // CHANGE
+    this.game2.distance[3] = 0;
+    t.checkExpect(this.game2.relaxPower(3, 4), true);
+    // AFTER
+    t.checkExpect(this.game2.distance[4], 1);
+    t.checkExpect(this.game2.parent[4], 3);
+    // unlit tiles are lit, but only within the radius:
+    this.game2.sendPower(0, 0, 0);
+    t.checkExpect(this.game2.relaxPower(3, 4), true);
+    t.checkExpect(this.p5.isLit(), true);
+    this.game2.radius = 0;
+    t.checkExpect(this.game2.relaxPower(4, 1), false);
+    t.checkExpect(this.p4.isLit(), false);
+  }
+
+  void testLightAndUnlight(Tester t) {
+    this.init();
+    // CHANGE 1
+    this.game2.light(0, -1, 0);
+    this.game2.light(3, 0, 1);
+    this.game2.light(4, 3, 2);
+    // AFTER 1
+    t.checkExpect(this.p2.isLit(), true);
+    t.checkExpect(this.game2.distance[3], 1);
+    t.checkExpect(this.game2.parent[4], 3);
+    t.checkExpect(this.game2.litCount, 3);
+    // CHANGE 2
+    this.game2.unlight(0);
+    // AFTER 2: the last lit tile takes the unlit one's place
+    t.checkExpect(this.p1.isLit(), false);
+    t.checkExpect(this.game2.distance[0], -1);
+    t.checkExpect(this.game2.litCount, 2);
+    t.checkExpect(this.game2.litTiles[0], 4);
+    t.checkExpect(this.game2.litPos[4], 0);
+  }
+
+  void testAdjacentTo(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.adjacentTo(4, 0), 3);
+    t.checkExpect(this.game2.adjacentTo(4, 1), 1);
+    t.checkExpect(this.game2.adjacentTo(4, 2), 5);
+    t.checkExpect(this.game2.adjacentTo(4, 3), 7);
+    t.checkExpect(this.game2.adjacentTo(0, 0), -1);
+    t.checkExpect(this.game2.adjacentTo(0, 1), -1);
+    t.checkExpect(this.game2.adjacentTo(8, 2), -1);
+    t.checkExpect(this.game2.adjacentTo(8, 3), -1);
+  }
+
+  void testConnectedTo(Tester t) {
+    this.init();
+    t.checkExpect(this.game2.connectedTo(4, 0), 3);
+    t.checkExpect(this.game2.connectedTo(4, 1), 1);
+    t.checkExpect(this.game2.connectedTo(0, 3), 3);
+    // open pipe facing a closed one:
+    t.checkExpect(this.game2.connectedTo(3, 1), 0);
+    t.checkExpect(this.game2.connectedTo(1, 0), -1);
+    // open pipe facing the edge of the board:
+    t.checkExpect(this.game2.connectedTo(0, 1), -1);
+  }
+
+
+
+  void testAutoSolve(Tester t) {
+    PowerSupply game = new PowerSupply(new BoardGenerator(12, 10).generate(8), new Random(1));
+    // CHANGE
+    t.checkExpect(game.autoSolve(), true);
+    // AFTER
+    t.checkExpect(game.pack().isSpanningTree(), true);
+    t.checkExpect(game.pieceAt(0).isLit(), true);
+    t.checkExpect(game.litCount > 1, true);
+    t.checkExpect(game.dirtyCount > 0, true);
+    this.init();
+    // the test board's pipes cannot all join up:
+    t.checkExpect(this.game2.autoSolve(), false);
+    t.checkExpect(this.p1.mask(), PackedBoard.TOP | PackedBoard.BOTTOM);
   }
 
   void testGameWon(Tester t) {
@@ -1034,6 +1961,11 @@ class ExamplesPowerSupply {
     this.game2.powerRow = 1;
     this.game2.sendPower(this.game2.powerCol, this.game2.powerRow, this.game2.radius);
     t.checkExpect(this.game2.gameWon(), true);
+    // unlighting any tile loses the game again:
+    this.game2.unlight(8);
+    t.checkExpect(this.game2.gameWon(), false);
+    this.game2.light(8, 5, 2);
+    t.checkExpect(this.game2.gameWon(), true);
   }
 
   void testMakeScene(Tester t) {
@@ -1041,6 +1973,75 @@ class ExamplesPowerSupply {
     t.checkExpect(this.game2.makeScene(), this.scene1);
   }
 
+  void testMarkDirty(Tester t) {
+    this.init();
+    // BEFORE
+    t.checkExpect(this.game2.dirtyCount, 0);
+    // CHANGE
+    this.game2.markDirty(4);
+    this.game2.markDirty(7);
+    this.game2.markDirty(4);
+    // AFTER
+    t.checkExpect(this.game2.dirtyCount, 2);
+    t.checkExpect(this.game2.dirtyTiles[1], 7);
+    t.checkExpect(this.game2.dirty[4], true);
+    t.checkExpect(this.game2.dirty[0], false);
+    // changes in power mark the tiles they touch:
+    this.game2.light(0, -1, 0);
+    this.game2.unlight(0);
+    t.checkExpect(this.game2.dirtyCount, 3);
+    t.checkExpect(this.game2.dirtyTiles[2], 0);
+  }
+
+  void testComposeBoard(Tester t) {
+    this.init();
+    this.game2.composeBoard();
+    WorldImage whole = this.game2.boardImages[1];
+    WorldImage topRow = this.game2.rowImages[0][1];
+    WorldImage middleRow = this.game2.rowImages[1][1];
+    t.checkExpect(whole.getWidth(), 150.0);
+    t.checkExpect(whole.getHeight(), 150.0);
+    t.checkExpect(this.game2.rowImages[0][6], this.p4.draw(-1, 1));
+    // nothing changed, so nothing is rebuilt:
+    this.game2.composeBoard();
+    t.checkExpect(this.game2.boardImages[1] == whole, true);
+    // CHANGE: only the changed tile's row is rebuilt
+    this.game2.onMouseClicked(new Posn(75, 75));
+    this.game2.composeBoard();
+    // AFTER
+    t.checkExpect(this.game2.dirtyCount, 0);
+    t.checkExpect(this.game2.boardImages[1] == whole, false);
+    t.checkExpect(this.game2.rowImages[0][1] == topRow, true);
+    t.checkExpect(this.game2.rowImages[1][1] == middleRow, false);
+    t.checkExpect(this.game2.boardImages[1].getWidth(), 150.0);
+  }
+
+  void testComposeRow(Tester t) {
+    this.init();
+    this.game2.composeBoard();
+    WorldImage left = this.game2.rowImages[2][2];
+    // CHANGE
+    this.p9.setLit(true);
+    this.game2.composeRow(2, 1, 0, 3, 2);
+    // AFTER: only the path down to column 2 was rebuilt
+    t.checkExpect(this.game2.rowImages[2][2] == left, true);
+    t.checkExpect(this.game2.rowImages[2][7], this.p9.draw(-1, 1));
+    t.checkExpect(this.game2.rowImages[2][1].getWidth(), 150.0);
+  }
+
+  void testComposeRows(Tester t) {
+    this.init();
+    this.game2.composeBoard();
+    WorldImage top = this.game2.boardImages[2];
+    // CHANGE
+    this.game2.rowImages[2][1] = new RectangleImage(150, 50, "solid", Color.RED);
+    this.game2.composeRows(1, 0, 3, 2);
+    // AFTER
+    t.checkExpect(this.game2.boardImages[2] == top, true);
+    t.checkExpect(this.game2.boardImages[7], new RectangleImage(150, 50, "solid", Color.RED));
+    t.checkExpect(this.game2.boardImages[1].getHeight(), 150.0);
+  }
+
   void testLastScene(Tester t) {
     this.init();
     t.checkExpect(this.game2.lastScene("YOU WIN!"), this.scene2);
@@ -1049,17 +2050,254 @@ class ExamplesPowerSupply {
   void testOnMouseClicked(Tester t) {
     this.init();
     // BEFORE
-    t.checkExpect(this.game2.board.get(0).get(0).left, false);
-    t.checkExpect(this.game2.board.get(0).get(0).top, true);
-    t.checkExpect(this.game2.board.get(2).get(1).right, false);
+    t.checkExpect(this.game2.pieceAt(0, 0).mask() & PackedBoard.LEFT, 0);
+    t.checkExpect(this.game2.pieceAt(0, 0).mask() & PackedBoard.TOP, PackedBoard.TOP);
+    t.checkExpect(this.game2.pieceAt(2, 1).mask() & PackedBoard.RIGHT, 0);
     // CHANGE
     this.game2.onMouseClicked(new Posn(27, 40));
     this.game2.onMouseClicked(new Posn(133, 52));
     this.game2.onMouseClicked(new Posn(1000, 1000)); // out of bounds, no effect
     // AFTER
-    t.checkExpect(this.game2.board.get(0).get(0).left, true);
-    t.checkExpect(this.game2.board.get(0).get(0).top, false);
-    t.checkExpect(this.game2.board.get(2).get(1).right, true);
+    t.checkExpect(this.game2.pieceAt(0, 0).mask() & PackedBoard.LEFT, PackedBoard.LEFT);
+    t.checkExpect(this.game2.pieceAt(0, 0).mask() & PackedBoard.TOP, 0);
+    t.checkExpect(this.game2.pieceAt(2, 1).mask() & PackedBoard.RIGHT, PackedBoard.RIGHT);
+  }
+
+  void testClicksAllocateNothing(Tester t) {
+    PowerSupply game = new PowerSupply(500, 500, new Random(8));
+    Random rand = new Random(9);
+    Posn[] clicks = new Posn[10000];
+    for (int i = 0; i < clicks.length; i += 1) {
+      clicks[i] = new Posn(rand.nextInt(500) * 50 + 25, rand.nextInt(500) * 50 + 25);
+    }
+    String[] keys = new String[] { "left", "up", "right", "down", "x" };
+    int presses = 1000;
+    int warmupRounds = 20;
+    // every move is logged, so make room for them all up front:
+    game.moves.reserve((warmupRounds + 1) * (clicks.length + presses));
+    // warm up, both the clicks and the keys, for long enough that the JIT has
+    // compiled every path they take, so that the bytes it allocates while
+    // swapping in compiled code are all allocated before anything is counted:
+    for (int round = 0; round < warmupRounds; round += 1) {
+      for (int i = 0; i < clicks.length; i += 1) {
+        game.onMouseClicked(clicks[i]);
+      }
+      for (int i = 0; i < presses; i += 1) {
+        game.onKeyEvent(keys[i % keys.length]);
+      }
+    }
+    long overhead = PowerSupplyBenchmarks.allocatedBytes();
+    overhead = PowerSupplyBenchmarks.allocatedBytes() - overhead;
+    // CHANGE
+    long before = PowerSupplyBenchmarks.allocatedBytes();
+    for (int i = 0; i < clicks.length; i += 1) {
+      game.onMouseClicked(clicks[i]);
+    }
+    long allocated = PowerSupplyBenchmarks.allocatedBytes() - before - overhead;
+    // AFTER
+    t.checkExpect(allocated, 0L);
+    // and the same for the arrow keys:
+    before = PowerSupplyBenchmarks.allocatedBytes();
+    for (int i = 0; i < presses; i += 1) {
+      game.onKeyEvent(keys[i % keys.length]);
+    }
+    allocated = PowerSupplyBenchmarks.allocatedBytes() - before - overhead;
+    t.checkExpect(allocated, 0L);
+  }
+
+  void testKeyDirections(Tester t) {
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.get("left"), 0);
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.get("up"), 1);
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.get("right"), 2);
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.get("down"), 3);
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.get("space"), null);
+    // and no one can rebind them:
+    boolean rebound = true;
+    try {
+      PowerSupply.KEY_DIRECTIONS.put("space", 1);
+    }
+    catch (UnsupportedOperationException e) {
+      rebound = false;
+    }
+    t.checkExpect(rebound, false);
+    t.checkExpect(PowerSupply.KEY_DIRECTIONS.size(), 4);
+  }
+
+  void testRotateAt(Tester t) {
+    this.init();
+    this.game2.tickNum = 7;
+    // BEFORE
+    t.checkExpect(this.game2.pieceAt(2, 1).mask() & PackedBoard.RIGHT, 0);
+    // CHANGE
+    this.game2.rotateAt(2, 1);
+    // AFTER
+    t.checkExpect(this.game2.pieceAt(2, 1).mask() & PackedBoard.RIGHT, PackedBoard.RIGHT);
+    t.checkExpect(this.game2.moves.size, 1);
+    t.checkExpect(this.game2.moves.tiles[0], 5);
+    t.checkExpect(this.game2.moves.actions[0], (byte) MoveLog.ROTATE);
+    t.checkExpect(this.game2.moves.ticks[0], 7);
+  }
+
+  void testMoveStation(Tester t) {
+    this.init();
+    this.game2.radius = 0;
+    // CHANGE: no connection upwards from the top row
+    t.checkExpect(this.game2.moveStation(1), false);
+    // AFTER
+    t.checkExpect(this.game2.moves.size, 0);
+    // CHANGE
+    t.checkExpect(this.game2.moveStation(3), true);
+    // AFTER
+    t.checkExpect(this.game2.powerRow, 1);
+    t.checkExpect(this.game2.pieceAt(0, 0).hasStation(), false);
+    t.checkExpect(this.game2.pieceAt(0, 1).hasStation(), true);
+    t.checkExpect(this.game2.moves.size, 1);
+    t.checkExpect(this.game2.moves.tiles[0], 0);
+    t.checkExpect(this.game2.moves.actions[0], (byte) (MoveLog.STATION + 3));
+  }
+
+  void testStepStation(Tester t) {
+    this.init();
+    this.game2.radius = 0;
+    t.checkExpect(this.game2.stepStation(1), false);
+    // CHANGE
+    t.checkExpect(this.game2.stepStation(3), true);
+    // AFTER: moved and relit, but not recorded
+    t.checkExpect(this.game2.powerRow, 1);
+    t.checkExpect(this.game2.pieceAt(0, 1).hasStation(), true);
+    t.checkExpect(this.game2.pieceAt(0, 1).isLit(), true);
+    t.checkExpect(this.game2.moves.size, 0);
+  }
+
+  void testUndoAndRedo(Tester t) {
+    PowerSupply game = new PowerSupply(6, 6, new Random(3));
+    PackedBoard start = game.pack();
+    // nothing to undo or redo yet:
+    t.checkExpect(game.undo(), false);
+    t.checkExpect(game.redo(), false);
+    Random rand = new Random(4);
+    for (int i = 0; i < 200; i += 1) {
+      if (i % 4 == 0) {
+        game.moveStation(rand.nextInt(4));
+      }
+      else {
+        game.rotateAt(rand.nextInt(6), rand.nextInt(6));
+      }
+    }
+    PackedBoard end = game.pack();
+    int moved = game.moves.size;
+    // CHANGE
+    while (game.undo()) {
+      // undoes every move
+    }
+    // AFTER
+    t.checkExpect(game.pack(), start);
+    t.checkExpect(game.moves.cursor, 0);
+    // CHANGE
+    while (game.redo()) {
+      // redoes every move
+    }
+    // AFTER
+    t.checkExpect(game.pack(), end);
+    t.checkExpect(game.moves.cursor, moved);
+    // CHANGE: a new move after undoing one forgets it
+    game.undo();
+    game.rotateAt(0, 0);
+    // AFTER
+    t.checkExpect(game.moves.size, moved);
+    t.checkExpect(game.moves.tiles[moved - 1], 0);
+    t.checkExpect(game.redo(), false);
+  }
+
+  void testUndoAndRedoKeys(Tester t) {
+    this.init();
+    this.game2.radius = 0;
+    this.game2.onKeyEvent("down");
+    // CHANGE
+    this.game2.onKeyEvent("z");
+    // AFTER
+    t.checkExpect(this.game2.powerRow, 0);
+    t.checkExpect(this.game2.pieceAt(0, 1).hasStation(), false);
+    // CHANGE
+    this.game2.onKeyEvent("y");
+    // AFTER
+    t.checkExpect(this.game2.powerRow, 1);
+    t.checkExpect(this.game2.pieceAt(0, 1).hasStation(), true);
+  }
+
+  void testKeysRelightOnlyWhenNeeded(Tester t) {
+    PowerSupply game = new PowerSupply(6, 6, new Random(15));
+    game.rotateAt(2, 2);
+    int calls = game.powerNum;
+    // CHANGE: a key that isn't bound
+    game.onKeyEvent("x");
+    // AFTER: nothing relit
+    t.checkExpect(game.powerNum, calls);
+    // CHANGE: undoing and redoing a rotation
+    game.onKeyEvent("z");
+    game.onKeyEvent("y");
+    // AFTER: lit pieces updated only around the tile, not relit
+    t.checkExpect(game.powerNum, calls);
+    // CHANGE: an arrow with no connection that way, from the top left corner
+    game.onKeyEvent("up");
+    // AFTER
+    t.checkExpect(game.powerNum, calls);
+    // CHANGE: moving the station along its connection down
+    game.onKeyEvent("down");
+    // AFTER: relit exactly once
+    t.checkExpect(game.powerRow, 1);
+    t.checkExpect(game.powerNum, calls + 1);
+    // CHANGE: undoing that
+    game.onKeyEvent("z");
+    // AFTER: relit exactly once more
+    t.checkExpect(game.powerRow, 0);
+    t.checkExpect(game.powerNum, calls + 2);
+  }
+
+  void testReplay(Tester t) {
+    PowerSupply game = new PowerSupply(8, 5, 11, false);
+    Random rand = new Random(12);
+    for (int i = 0; i < 300; i += 1) {
+      game.tickNum = i / 10;
+      if (i % 5 == 0) {
+        game.moveStation(rand.nextInt(4));
+      }
+      else {
+        game.rotateAt(rand.nextInt(8), rand.nextInt(5));
+      }
+    }
+    game.undo();
+    game.undo();
+    // CHANGE
+    PowerSupply rebuilt = game.rebuild();
+    // AFTER: the same board, with the same moves in effect (but not those undone)
+    t.checkExpect(rebuilt.pack(), game.pack());
+    t.checkExpect(rebuilt.powerRow, game.powerRow);
+    t.checkExpect(rebuilt.powerCol, game.powerCol);
+    t.checkExpect(rebuilt.moves.size, game.moves.cursor);
+    t.checkExpect(Arrays.copyOf(rebuilt.moves.tiles, rebuilt.moves.size),
+        Arrays.copyOf(game.moves.tiles, game.moves.cursor));
+    t.checkExpect(Arrays.copyOf(rebuilt.moves.ticks, rebuilt.moves.size),
+        Arrays.copyOf(game.moves.ticks, game.moves.cursor));
+    t.checkExpect(rebuilt.tickNum, 29);
+    // and a new game rebuilds as it was generated:
+    t.checkExpect(new PowerSupply(8, 5, 11, false).rebuild().pack(),
+        new PowerSupply(8, 5, new Random(11)).pack());
+    // including one whose seed was drawn for it, or whose station started at
+    // the center:
+    PowerSupply drawn = new PowerSupply(8, 5);
+    drawn.rotateAt(3, 2);
+    t.checkExpect(drawn.seeded, true);
+    t.checkExpect(drawn.rebuild().pack(), drawn.pack());
+    PowerSupply centered = new PowerSupply(8, 5, 11, true);
+    centered.moveStation(0);
+    centered.rotateAt(3, 2);
+    t.checkExpect(centered.rebuild().pack(), centered.pack());
+    t.checkExpect(centered.rebuild().powerCol, centered.powerCol);
+    // but not one generated from a Random the caller made:
+    t.checkException(
+        new IllegalArgumentException("Only a game generated from a seed can be rebuilt."),
+        new PowerSupply(8, 5, new Random(11)), "rebuild");
   }
 
   void testOnKeyEvent(Tester t) {
@@ -1091,32 +2329,47 @@ class ExamplesPowerSupply {
   void testRotate(Tester t) {
     this.init();
     // BEFORE
-    t.checkExpect(this.p1, new GamePiece(0, 0, false, true, false, true, false, this.testRand));
-    t.checkExpect(this.p2, new GamePiece(1, 0, false, true, true, true, false, this.testRand));
-    t.checkExpect(this.p5, new GamePiece(1, 1, true, true, true, true, true, this.testRand));
-    t.checkExpect(this.p8, new GamePiece(1, 2, true, true, false, true, false, this.testRand));
+    t.checkExpect(this.p1.mask(), PackedBoard.TOP | PackedBoard.BOTTOM);
+    t.checkExpect(this.p2.mask(), PackedBoard.TOP | PackedBoard.RIGHT | PackedBoard.BOTTOM);
+    t.checkExpect(this.p5.mask(), 15);
+    t.checkExpect(this.p8.mask(), PackedBoard.LEFT | PackedBoard.TOP | PackedBoard.BOTTOM);
     // CHANGE
     this.p1.rotate();
     this.p2.rotate();
     this.p5.rotate();
     this.p8.rotate();
     // AFTER
-    t.checkExpect(this.p1, new GamePiece(0, 0, true, false, true, false, false, this.testRand));
-    t.checkExpect(this.p2, new GamePiece(1, 0, true, false, true, true, false, this.testRand));
-    t.checkExpect(this.p5, new GamePiece(1, 1, true, true, true, true, true, this.testRand));
-    t.checkExpect(this.p8, new GamePiece(1, 2, true, true, true, false, false, this.testRand));
+    t.checkExpect(this.p1.mask(), PackedBoard.LEFT | PackedBoard.RIGHT);
+    t.checkExpect(this.p2.mask(), PackedBoard.LEFT | PackedBoard.RIGHT | PackedBoard.BOTTOM);
+    t.checkExpect(this.p5.mask(), 15);
+    t.checkExpect(this.p5.hasStation(), true);
+    t.checkExpect(this.p8.mask(), PackedBoard.LEFT | PackedBoard.TOP | PackedBoard.RIGHT);
+    // and the rotation is made on the game's board itself:
+    t.checkExpect(this.game2.pieceAt(0, 0).mask(), PackedBoard.LEFT | PackedBoard.RIGHT);
   }
 
-  void testAddEdge(Tester t) {
+
+  void testMask(Tester t) {
     this.init();
-    // BEFORE 1
-    t.checkExpect(this.p1.edges, new ArrayList<Edge>());
-    // CHANGE 1
-    this.p1.addEdge(this.p2);
-    // AFTER 1
-    t.checkExpect(this.p1.edges, this.edges4);
+    t.checkExpect(this.p1.mask(), PackedBoard.TOP | PackedBoard.BOTTOM);
+    t.checkExpect(this.p8.mask(), PackedBoard.LEFT | PackedBoard.TOP | PackedBoard.BOTTOM);
+    t.checkExpect(this.p5.mask(), 15);
+    t.checkExpect(this.p1a.mask(), 0);
   }
 
+  void testSetMask(Tester t) {
+    this.init();
+    // CHANGE
+    this.p1.setMask(PackedBoard.LEFT | PackedBoard.RIGHT);
+    this.p5.setMask(0);
+    // AFTER
+    t.checkExpect(this.p1.mask(), PackedBoard.LEFT | PackedBoard.RIGHT);
+    t.checkExpect(this.p5.mask(), 0);
+    t.checkExpect(this.p5.hasStation(), true);
+  }
+
+
+
   void testDraw(Tester t) {
     this.init();
     t.checkExpect(this.p1.draw(this.game2.findDistance(this.p1, this.p5), this.game2.radius),
@@ -1127,6 +2380,37 @@ class ExamplesPowerSupply {
         this.i3);
   }
 
+  void testDrawCached(Tester t) {
+    this.init();
+    // pieces with the same shape, station and brightness share one sprite:
+    t.checkExpect(this.p1.draw(-1, 3) == this.p3.draw(-1, 3), true);
+    t.checkExpect(this.p1.draw(-1, 3) == this.p4.draw(-1, 3), true);
+    t.checkExpect(this.p1.draw(-1, 3) == this.p2.draw(-1, 3), false);
+    this.p1.setLit(true);
+    this.p3.setLit(true);
+    t.checkExpect(this.p1.draw(0, 3) == this.p3.draw(0, 3), true);
+    t.checkExpect(this.p1.draw(0, 3) == this.p3.draw(3, 3), false);
+    t.checkExpect(this.p1.draw(0, 3),
+        new OverlayImage(
+            new RectangleImage(5, 25, "solid", new Color(255, 255, 0, 255)).movePinhole(0, -12),
+            new OverlayImage(
+                new RectangleImage(5, 25, "solid", new Color(255, 255, 0, 255)).movePinhole(0, 12),
+                new OverlayImage(new RectangleImage(50, 50, "outline", Color.BLACK),
+                    new RectangleImage(50, 50, "solid", Color.DARK_GRAY)))));
+    // the station is drawn on its own sprite:
+    this.p1.setStation(true);
+    t.checkExpect(this.p1.draw(0, 3) == this.p3.draw(0, 3), false);
+  }
+
+  void testBrightness(Tester t) {
+    t.checkExpect(GamePiece.brightness(0, 3), GamePiece.BRIGHTNESS_LEVELS);
+    t.checkExpect(GamePiece.brightness(1, 3), 10);
+    t.checkExpect(GamePiece.brightness(3, 3), 1);
+    // never dimmer than the dimmest level, or brighter than the brightest:
+    t.checkExpect(GamePiece.brightness(10, 3), 1);
+    t.checkExpect(GamePiece.brightness(-1, 3), GamePiece.BRIGHTNESS_LEVELS);
+  }
+
   void testEdgeToString(Tester t) {
     this.init();
     t.checkExpect(this.e2.toString(), "700");
@@ -1142,7 +2426,7 @@ class ExamplesPowerSupply {
         0);
     t.checkConstructorException(
         new IllegalArgumentException("Width and height must be positive values."), "LightEmAll", 6,
-        0, this.board1, this.nodes1, this.edges1, this.testRand);
+        0, this.board1, this.edges1, this.testRand);
   }
 
 }
\ No newline at end of file
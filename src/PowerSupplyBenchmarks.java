@@ -0,0 +1,408 @@
+import java.util.*;
+import java.lang.management.ManagementFactory;
+import tester.*;
+import javalib.worldimages.*;
+
+// measures the throughput and allocation rate of the game's hot paths over a
+// range of board sizes, always generating boards from the same seeds so that
+// runs can be compared against each other
+// usage: java PowerSupplyBenchmarks [size ...]
+class PowerSupplyBenchmarks {
+  // the seed every benchmark's board is generated from
+  static final long SEED = 42;
+  // the side lengths of the square boards benchmarked by default
+  static final int[] SIZES = { 10, 30, 100, 300, 1000 };
+  // how long to run each benchmark before and while measuring it
+  long warmupNanos;
+  long measureNanos;
+
+  PowerSupplyBenchmarks(long warmupNanos, long measureNanos) {
+    this.warmupNanos = warmupNanos;
+    this.measureNanos = measureNanos;
+  }
+
+  public static void main(String[] args) {
+    int[] sizes = SIZES;
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i += 1) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    PowerSupplyBenchmarks runner = new PowerSupplyBenchmarks(1000000000L, 2000000000L);
+    System.out.println(BenchmarkResult.HEADER);
+    for (int size : sizes) {
+      for (Benchmark b : allBenchmarks()) {
+        System.out.println(runner.measure(b, size));
+      }
+    }
+  }
+
+  // returns one of every benchmark
+  static ArrayList<Benchmark> allBenchmarks() {
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new ConstructionBenchmark());
+    benchmarks.add(new HeapsortEdgesBenchmark());
+    benchmarks.add(new SetMSTBenchmark());
+    benchmarks.add(new MeasureTreeBenchmark());
+    benchmarks.add(new SendPowerBenchmark());
+    benchmarks.add(new MakeSceneBenchmark());
+    benchmarks.add(new ClickStreamBenchmark());
+    benchmarks.add(new SolveBenchmark());
+    benchmarks.add(new ReplayBenchmark());
+    return benchmarks;
+  }
+
+  // runs the given benchmark on a board of the given size, first to warm up
+  // and then while measuring it, and returns what was measured
+  BenchmarkResult measure(Benchmark b, int size) {
+    b.setup(size);
+    long start = System.nanoTime();
+    while (System.nanoTime() - start < this.warmupNanos) {
+      b.run();
+    }
+    long allocatedBefore = allocatedBytes();
+    int ops = 0;
+    start = System.nanoTime();
+    long elapsed = 0;
+    while (ops == 0 || elapsed < this.measureNanos) {
+      b.run();
+      ops += 1;
+      elapsed = System.nanoTime() - start;
+    }
+    return new BenchmarkResult(b.name(), size, ops, elapsed, allocatedBytes() - allocatedBefore);
+  }
+
+  // returns how many bytes the current thread has allocated so far
+  static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // returns a game of a square board of the given size generated from the
+  // benchmarks' seed, left solved, with the station in the top left corner
+  static PowerSupply solvedGame(int size) {
+    GeneratedLevel level = new BoardGenerator(size, size).generate(SEED);
+    return new PowerSupply(new GeneratedLevel(SEED, level.solved, new byte[size * size]),
+        new Random(SEED));
+  }
+}
+
+// represents one operation whose performance is measured
+interface Benchmark {
+  // returns the name this benchmark is reported under
+  String name();
+
+  // EFFECT: prepares a board of the given width and height for this benchmark
+  void setup(int size);
+
+  // EFFECT: performs this benchmark's operation once
+  void run();
+}
+
+// measures generating a whole new game
+class ConstructionBenchmark implements Benchmark {
+  int size;
+
+  public String name() {
+    return "construction";
+  }
+
+  public void setup(int size) {
+    this.size = size;
+  }
+
+  public void run() {
+    new PowerSupply(this.size, this.size, new Random(PowerSupplyBenchmarks.SEED));
+  }
+}
+
+// measures ordering every possible edge of a board by weight
+class HeapsortEdgesBenchmark implements Benchmark {
+  PowerSupply game;
+
+  public String name() {
+    return "heapsortEdges";
+  }
+
+  public void setup(int size) {
+    this.game = new PowerSupply(size, size, new Random(PowerSupplyBenchmarks.SEED));
+    this.game.edges = this.game.setEdges();
+  }
+
+  public void run() {
+    this.game.heapsortEdges();
+  }
+}
+
+// measures finding the minimum spanning tree of a board
+class SetMSTBenchmark implements Benchmark {
+  PowerSupply game;
+
+  public String name() {
+    return "setMST";
+  }
+
+  public void setup(int size) {
+    this.game = new PowerSupply(size, size, new Random(PowerSupplyBenchmarks.SEED));
+    this.game.edges = this.game.setEdges();
+  }
+
+  public void run() {
+    this.game.setMST();
+  }
+}
+
+// measures finding the diameter and center of a solved board's tree
+class MeasureTreeBenchmark implements Benchmark {
+  PowerSupply game;
+
+  public String name() {
+    return "measureTree";
+  }
+
+  public void setup(int size) {
+    this.game = PowerSupplyBenchmarks.solvedGame(size);
+  }
+
+  public void run() {
+    this.game.measureTree();
+  }
+}
+
+// measures relighting a whole solved board from its station
+class SendPowerBenchmark implements Benchmark {
+  PowerSupply game;
+
+  public String name() {
+    return "sendPower";
+  }
+
+  public void setup(int size) {
+    this.game = PowerSupplyBenchmarks.solvedGame(size);
+  }
+
+  public void run() {
+    this.game.sendPower(this.game.powerCol, this.game.powerRow, this.game.radius);
+  }
+}
+
+// measures drawing a frame after a click changes the board
+class MakeSceneBenchmark implements Benchmark {
+  PowerSupply game;
+  Posn click;
+
+  public String name() {
+    return "makeScene";
+  }
+
+  public void setup(int size) {
+    this.game = new PowerSupply(size, size, new Random(PowerSupplyBenchmarks.SEED));
+    this.game.makeScene();
+    this.click = new Posn(25, 25);
+  }
+
+  public void run() {
+    this.game.onMouseClicked(this.click);
+    this.game.makeScene();
+  }
+}
+
+// measures handling a stream of clicks on random tiles
+class ClickStreamBenchmark implements Benchmark {
+  // how many distinct clicks the stream cycles through
+  static final int LENGTH = 4096;
+  PowerSupply game;
+  Posn[] clicks;
+  int next;
+
+  public String name() {
+    return "clickStream";
+  }
+
+  public void setup(int size) {
+    this.game = new PowerSupply(size, size, new Random(PowerSupplyBenchmarks.SEED));
+    Random rand = new Random(PowerSupplyBenchmarks.SEED);
+    this.clicks = new Posn[LENGTH];
+    for (int i = 0; i < LENGTH; i += 1) {
+      this.clicks[i] = new Posn(rand.nextInt(size) * 50 + 25, rand.nextInt(size) * 50 + 25);
+    }
+    this.next = 0;
+  }
+
+  public void run() {
+    if (this.next == 0) {
+      // so that the move log never outgrows the stream:
+      this.game.moves.clear();
+    }
+    this.game.onMouseClicked(this.clicks[this.next]);
+    this.next = (this.next + 1) % LENGTH;
+  }
+}
+
+// measures replaying a log of rotations and station moves onto a game, one
+// whole log per operation
+class ReplayBenchmark implements Benchmark {
+  // how many moves the log holds
+  static final int LENGTH = 4096;
+  PowerSupply game;
+  MoveLog log;
+
+  public String name() {
+    return "replay";
+  }
+
+  public void setup(int size) {
+    this.game = new PowerSupply(size, size, new Random(PowerSupplyBenchmarks.SEED));
+    Random rand = new Random(PowerSupplyBenchmarks.SEED);
+    for (int i = 0; i < LENGTH; i += 1) {
+      if (i % 8 == 0) {
+        this.game.moveStation(rand.nextInt(4));
+      }
+      else {
+        this.game.rotateAt(rand.nextInt(size), rand.nextInt(size));
+      }
+    }
+    this.log = this.game.moves;
+    this.game.moves = new MoveLog(LENGTH);
+  }
+
+  public void run() {
+    this.game.moves.clear();
+    this.game.replay(this.log);
+  }
+}
+
+// measures solving a scrambled board
+class SolveBenchmark implements Benchmark {
+  PackedBoard scrambled;
+
+  public String name() {
+    return "solve";
+  }
+
+  public void setup(int size) {
+    this.scrambled = new BoardGenerator(size, size).generate(PowerSupplyBenchmarks.SEED)
+        .scrambled();
+  }
+
+  public void run() {
+    new BoardSolver(this.scrambled).solve();
+  }
+}
+
+// represents what was measured while running one benchmark at one size
+class BenchmarkResult {
+  // the column headings matching each result's toString
+  static final String HEADER = String.format("%-18s %6s %14s %14s %14s", "benchmark", "size",
+      "ops/s", "ns/op", "bytes/op");
+  String name;
+  int size;
+  int ops;
+  long nanos;
+  long bytes;
+
+  BenchmarkResult(String name, int size, int ops, long nanos, long bytes) {
+    this.name = name;
+    this.size = size;
+    this.ops = ops;
+    this.nanos = nanos;
+    this.bytes = bytes;
+  }
+
+  // returns how many operations ran per second
+  double opsPerSecond() {
+    return this.ops * 1e9 / this.nanos;
+  }
+
+  // returns how long each operation took on average, in nanoseconds
+  double nanosPerOp() {
+    return (double) this.nanos / this.ops;
+  }
+
+  // returns how many bytes each operation allocated on average
+  double bytesPerOp() {
+    return (double) this.bytes / this.ops;
+  }
+
+  // returns this result as one row of a table under HEADER
+  public String toString() {
+    return String.format("%-18s %6d %14.1f %14.1f %14.1f", this.name, this.size,
+        this.opsPerSecond(), this.nanosPerOp(), this.bytesPerOp());
+  }
+}
+
+class ExamplesPowerSupplyBenchmarks {
+  PowerSupplyBenchmarks quick = new PowerSupplyBenchmarks(0, 1000000);
+  BenchmarkResult result = new BenchmarkResult("sendPower", 10, 4, 2000, 640);
+
+  void testMeasure(Tester t) {
+    BenchmarkResult measured = this.quick.measure(new SendPowerBenchmark(), 6);
+    t.checkExpect(measured.name, "sendPower");
+    t.checkExpect(measured.size, 6);
+    t.checkExpect(measured.ops > 0, true);
+    t.checkExpect(measured.nanos >= 1000000, true);
+    // even the slowest benchmark runs at least once:
+    t.checkExpect(new PowerSupplyBenchmarks(0, 0).measure(new ConstructionBenchmark(), 6).ops,
+        1);
+  }
+
+  void testAllBenchmarks(Tester t) {
+    ArrayList<Benchmark> benchmarks = PowerSupplyBenchmarks.allBenchmarks();
+    t.checkExpect(benchmarks.size(), 9);
+    for (Benchmark b : benchmarks) {
+      b.setup(5);
+      b.run();
+      b.run();
+    }
+    t.checkExpect(benchmarks.get(6).name(), "clickStream");
+  }
+
+  void testSolvedGame(Tester t) {
+    PowerSupply game = PowerSupplyBenchmarks.solvedGame(12);
+    t.checkExpect(game.pack().isSpanningTree(), true);
+    t.checkExpect(game.board.hasStation(0), true);
+    // the very board measureTree and sendPower are benchmarked on:
+    MeasureTreeBenchmark measure = new MeasureTreeBenchmark();
+    measure.setup(12);
+    t.checkExpect(measure.game.pack().isSpanningTree(), true);
+    SendPowerBenchmark send = new SendPowerBenchmark();
+    send.setup(12);
+    t.checkExpect(send.game.pack().isSpanningTree(), true);
+  }
+
+  void testAllocatedBytes(Tester t) {
+    long before = PowerSupplyBenchmarks.allocatedBytes();
+    int[] garbage = new int[100000];
+    t.checkExpect(PowerSupplyBenchmarks.allocatedBytes() - before >= 400000, true);
+    t.checkExpect(garbage.length, 100000);
+  }
+
+  void testClickStream(Tester t) {
+    ClickStreamBenchmark stream = new ClickStreamBenchmark();
+    stream.setup(8);
+    t.checkExpect(stream.clicks.length, ClickStreamBenchmark.LENGTH);
+    t.checkExpect(stream.clicks[0].x % 50, 25);
+    t.checkExpect(stream.clicks[0].x < 400, true);
+    // CHANGE
+    stream.run();
+    // AFTER
+    t.checkExpect(stream.next, 1);
+    stream.next = ClickStreamBenchmark.LENGTH - 1;
+    stream.run();
+    t.checkExpect(stream.next, 0);
+  }
+
+  void testResultRates(Tester t) {
+    t.checkInexact(this.result.opsPerSecond(), 2000000.0, 0.0001);
+    t.checkInexact(this.result.nanosPerOp(), 500.0, 0.0001);
+    t.checkInexact(this.result.bytesPerOp(), 160.0, 0.0001);
+  }
+
+  void testResultToString(Tester t) {
+    t.checkExpect(this.result.toString(),
+        "sendPower              10      2000000.0          500.0          160.0");
+    t.checkExpect(BenchmarkResult.HEADER,
+        "benchmark            size          ops/s          ns/op       bytes/op");
+  }
+}
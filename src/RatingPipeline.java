@@ -0,0 +1,323 @@
+import java.util.concurrent.*;
+import tester.*;
+
+// generates boards from a run of seeds, solves each, and keeps only those
+// with exactly one solution whose difficulty lies within a range, handing
+// each board it keeps to a sink in seed order
+// NOTE: seeds are taken a chunk at a time, rated in parallel into buffers
+// reused for every chunk, and the kept boards are handed on before the next
+// chunk starts, so memory stays bounded however many seeds are run
+// usage: java RatingPipeline width height count seed minDifficulty maxDifficulty
+class RatingPipeline {
+  // how many seeds are rated before the boards kept among them are handed on
+  static final int CHUNK = 1024;
+  int width;
+  int height;
+  // the least and greatest difficulty of the boards kept (inclusive)
+  int minDifficulty;
+  int maxDifficulty;
+
+  RatingPipeline(int width, int height, int minDifficulty, int maxDifficulty) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive values.");
+    }
+    if (minDifficulty > maxDifficulty) {
+      throw new IllegalArgumentException(
+          "Minimum difficulty must not be greater than maximum difficulty.");
+    }
+    this.width = width;
+    this.height = height;
+    this.minDifficulty = minDifficulty;
+    this.maxDifficulty = maxDifficulty;
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 6) {
+      throw new IllegalArgumentException(
+          "Usage: RatingPipeline width height count seed minDifficulty maxDifficulty");
+    }
+    RatingPipeline pipeline = new RatingPipeline(Integer.parseInt(args[0]),
+        Integer.parseInt(args[1]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+    PipelineReport report = pipeline.run(Long.parseLong(args[3]), Integer.parseInt(args[2]),
+        ForkJoinPool.commonPool(), new PrintingSink());
+    System.out.println(report);
+  }
+
+  // rates the boards generated from the given number of seeds of the given
+  // batch across the given pool, and returns how many were generated and
+  // kept, and how quickly
+  // EFFECT: hands every board kept, with its rating, to the given sink
+  PipelineReport run(long batchSeed, int count, ForkJoinPool pool, LevelSink sink) {
+    GeneratedLevel[] levels = new GeneratedLevel[Math.min(CHUNK, count)];
+    BoardRating[] ratings = new BoardRating[levels.length];
+    long kept = 0;
+    long start = System.nanoTime();
+    for (int base = 0; base < count; base += CHUNK) {
+      int size = Math.min(CHUNK, count - base);
+      pool.invoke(new RateTask(this.width, this.height, batchSeed, base, levels, ratings, 0,
+          size));
+      for (int i = 0; i < size; i += 1) {
+        if (this.keeps(ratings[i])) {
+          sink.accept(levels[i], ratings[i]);
+          kept += 1;
+        }
+        levels[i] = null;
+        ratings[i] = null;
+      }
+    }
+    return new PipelineReport(count, kept, System.nanoTime() - start, pool.getParallelism());
+  }
+
+  // does this pipeline keep a board with the given rating?
+  boolean keeps(BoardRating rating) {
+    return rating.isUnique() && rating.difficulty() >= this.minDifficulty
+        && rating.difficulty() <= this.maxDifficulty;
+  }
+}
+
+// represents generating and rating some of the boards of a chunk of seeds,
+// splitting them in half until each task has a batch of its own
+class RateTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  int width;
+  int height;
+  long batchSeed;
+  // the position in the batch of the chunk's first seed
+  int base;
+  GeneratedLevel[] levels;
+  BoardRating[] ratings;
+  int lo;
+  int hi;
+
+  RateTask(int width, int height, long batchSeed, int base, GeneratedLevel[] levels,
+      BoardRating[] ratings, int lo, int hi) {
+    this.width = width;
+    this.height = height;
+    this.batchSeed = batchSeed;
+    this.base = base;
+    this.levels = levels;
+    this.ratings = ratings;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // EFFECT: generates and rates the boards at positions lo (inclusive) to hi
+  // (exclusive) of the chunk
+  protected void compute() {
+    if (this.hi - this.lo <= BoardGenerator.BATCH) {
+      BoardGenerator generator = new BoardGenerator(this.width, this.height);
+      for (int i = this.lo; i < this.hi; i += 1) {
+        this.levels[i] = generator.generate(BoardGenerator.seedFor(this.batchSeed,
+            this.base + i));
+        this.ratings[i] = BoardRating.rate(this.levels[i]);
+      }
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new RateTask(this.width, this.height, this.batchSeed, this.base, this.levels,
+          this.ratings, this.lo, mid),
+          new RateTask(this.width, this.height, this.batchSeed, this.base, this.levels,
+              this.ratings, mid, this.hi));
+    }
+  }
+}
+
+// represents how hard a generated board is to solve: how many solutions it
+// has (counting no further than 2), how many rounds of propagation and
+// guesses it took to find them, and how deep the guesses went
+class BoardRating {
+  // how many rounds of propagation a guess is worth when scoring difficulty
+  static final int BRANCH_COST = 4;
+  long seed;
+  int solutions;
+  int rounds;
+  int branches;
+  int maxDepth;
+
+  BoardRating(long seed, int solutions, int rounds, int branches, int maxDepth) {
+    this.seed = seed;
+    this.solutions = solutions;
+    this.rounds = rounds;
+    this.branches = branches;
+    this.maxDepth = maxDepth;
+  }
+
+  // returns the rating of the given board
+  // NOTE: the search keeps going after the first solution, looking for a
+  // second, so its guesses count what it takes to prove a board has only one
+  static BoardRating rate(GeneratedLevel level) {
+    BoardSolver solver = new BoardSolver(level.scrambled());
+    int solutions = solver.countSolutions(2);
+    return new BoardRating(level.seed, solutions, solver.rounds, solver.branches,
+        solver.maxDepth);
+  }
+
+  // does the rated board have exactly one solution?
+  boolean isUnique() {
+    return this.solutions == 1;
+  }
+
+  // returns how hard the rated board is, as the rounds of propagation it took
+  // plus BRANCH_COST for every guess
+  int difficulty() {
+    return this.rounds + BRANCH_COST * this.branches;
+  }
+
+  // returns this rating as one line of the pipeline's output
+  public String toString() {
+    return String.format("%d solutions=%d difficulty=%d rounds=%d branches=%d depth=%d",
+        this.seed, this.solutions, this.difficulty(), this.rounds, this.branches,
+        this.maxDepth);
+  }
+}
+
+// represents where a pipeline hands the boards it keeps
+interface LevelSink {
+  // EFFECT: takes the given board, kept with the given rating
+  void accept(GeneratedLevel level, BoardRating rating);
+}
+
+// prints the rating of every board kept, one per line
+class PrintingSink implements LevelSink {
+  public void accept(GeneratedLevel level, BoardRating rating) {
+    System.out.println(rating);
+  }
+}
+
+// counts the boards kept and remembers the last of them
+class CountingSink implements LevelSink {
+  int count;
+  GeneratedLevel last;
+  BoardRating lastRating;
+
+  public void accept(GeneratedLevel level, BoardRating rating) {
+    this.count += 1;
+    this.last = level;
+    this.lastRating = rating;
+  }
+}
+
+// represents what a run of the pipeline did: how many boards it generated
+// and kept, how long it took, and how many threads it had
+class PipelineReport {
+  long generated;
+  long kept;
+  long nanos;
+  int cores;
+
+  PipelineReport(long generated, long kept, long nanos, int cores) {
+    this.generated = generated;
+    this.kept = kept;
+    this.nanos = nanos;
+    this.cores = cores;
+  }
+
+  // returns how many boards were generated and rated per second
+  double boardsPerSecond() {
+    return this.generated * 1e9 / this.nanos;
+  }
+
+  // returns how many boards each thread generated and rated per second
+  double boardsPerSecondPerCore() {
+    return this.boardsPerSecond() / this.cores;
+  }
+
+  // returns this report as one line
+  public String toString() {
+    return String.format("generated=%d kept=%d seconds=%.3f boards/s=%.1f boards/s/core=%.1f",
+        this.generated, this.kept, this.nanos / 1e9, this.boardsPerSecond(),
+        this.boardsPerSecondPerCore());
+  }
+}
+
+class ExamplesRatingPipeline {
+  RatingPipeline pipeline;
+  PipelineReport report = new PipelineReport(3000, 1200, 1500000000L, 4);
+
+  void init() {
+    this.pipeline = new RatingPipeline(8, 8, 0, 1000);
+  }
+
+  void testConstructor(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "RatingPipeline", 0, 8, 0, 10);
+    t.checkConstructorException(new IllegalArgumentException(
+        "Minimum difficulty must not be greater than maximum difficulty."), "RatingPipeline", 8,
+        8, 10, 9);
+  }
+
+  void testRate(Tester t) {
+    // a 3x1 row of pipes, with only one way to connect:
+    PackedBoard solved = new PackedBoard(3, 1);
+    solved.tiles = new byte[] { 4, 5, 1 };
+    BoardRating rating = BoardRating.rate(new GeneratedLevel(5, solved, new byte[] { 1, 1, 2 }));
+    t.checkExpect(rating.seed, 5L);
+    t.checkExpect(rating.solutions, 1);
+    t.checkExpect(rating.branches, 0);
+    t.checkExpect(rating.maxDepth, 0);
+    t.checkExpect(rating.rounds > 0, true);
+    // a 2x2 board of corners that can only form a loop:
+    PackedBoard loop = new PackedBoard(2, 2);
+    loop.tiles = new byte[] { 12, 9, 6, 3 };
+    t.checkExpect(BoardRating.rate(new GeneratedLevel(0, loop, new byte[4])).solutions, 0);
+    // a 3x3 board around a cross, with two solutions:
+    PackedBoard cross = new PackedBoard(3, 3);
+    cross.tiles = new byte[] { 8, 12, 1, 6, 15, 9, 4, 3, 2 };
+    BoardRating crossed = BoardRating.rate(new GeneratedLevel(0, cross, new byte[9]));
+    t.checkExpect(crossed.solutions, 2);
+    t.checkExpect(crossed.isUnique(), false);
+    t.checkExpect(crossed.branches > 0, true);
+  }
+
+  void testDifficulty(Tester t) {
+    BoardRating rating = new BoardRating(1, 1, 7, 3, 2);
+    t.checkExpect(rating.difficulty(), 7 + 3 * BoardRating.BRANCH_COST);
+    t.checkExpect(rating.isUnique(), true);
+    t.checkExpect(rating.toString(), "1 solutions=1 difficulty=19 rounds=7 branches=3 depth=2");
+  }
+
+  void testKeeps(Tester t) {
+    RatingPipeline fussy = new RatingPipeline(8, 8, 10, 20);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 1, 10, 0, 0)), true);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 1, 12, 2, 1)), true);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 1, 9, 0, 0)), false);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 1, 9, 3, 1)), false);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 2, 10, 0, 0)), false);
+    t.checkExpect(fussy.keeps(new BoardRating(1, 0, 10, 0, 0)), false);
+  }
+
+  void testRun(Tester t) {
+    this.init();
+    ForkJoinPool four = new ForkJoinPool(4);
+    CountingSink sink = new CountingSink();
+    PipelineReport report = this.pipeline.run(3, 2500, four, sink);
+    t.checkExpect(report.generated, 2500L);
+    t.checkExpect(report.kept, (long) sink.count);
+    t.checkExpect(report.cores, 4);
+    // most, but not all, small boards have just one solution:
+    t.checkExpect(sink.count > 1250, true);
+    t.checkExpect(sink.count < 2500, true);
+    t.checkExpect(sink.lastRating.isUnique(), true);
+    t.checkExpect(sink.last.seed, sink.lastRating.seed);
+    // the same boards are kept however many threads rate them:
+    ForkJoinPool one = new ForkJoinPool(1);
+    CountingSink again = new CountingSink();
+    this.pipeline.run(3, 2500, one, again);
+    t.checkExpect(again.count, sink.count);
+    t.checkExpect(again.last, sink.last);
+    // boards with no guesses to make are kept only when they're easy enough:
+    CountingSink easy = new CountingSink();
+    new RatingPipeline(8, 8, 0, 0).run(3, 100, four, easy);
+    t.checkExpect(easy.count, 0);
+    one.shutdown();
+    four.shutdown();
+  }
+
+  void testReport(Tester t) {
+    t.checkInexact(this.report.boardsPerSecond(), 2000.0, 0.0001);
+    t.checkInexact(this.report.boardsPerSecondPerCore(), 500.0, 0.0001);
+    t.checkExpect(this.report.toString(),
+        "generated=3000 kept=1200 seconds=1.500 boards/s=2000.0 boards/s/core=500.0");
+  }
+}
@@ -0,0 +1,332 @@
+import java.io.*;
+import java.util.*;
+import tester.*;
+
+// generates the solved connections of a board one row at a time (Eller's
+// Algorithm), handing each row to a sink as soon as it is done, so that only
+// a few rows' worth of memory is ever in use, however tall the board is:
+// - every tile of a row is in a set with the tiles it is already joined to,
+//   through this row or any above it
+// - neighbours in different sets are joined at random, merging their sets
+// - every set is joined downwards at random, but at least once, so that no
+//   set is cut off from the rows below
+// - the last row joins every neighbour still in a different set
+// NOTE: the trees it makes are random but not uniformly so (they tend to
+// have more long horizontal runs than Kruskal's Algorithm would give)
+// usage: java RowGenerator file width height seed
+class RowGenerator {
+  int width;
+  int height;
+  // reusable buffers, sized for one row: the set each tile is in (named by
+  // the column of one of its tiles), a disjoint-set forest of those sets, the
+  // connections of each tile, whether each tile joins the row below, and for
+  // each set, whether it joins the row below, how many of its tiles have been
+  // seen, the one picked to join it if it must be forced, and its name in the
+  // next row
+  int[] sets;
+  int[] parents;
+  byte[] connections;
+  boolean[] down;
+  boolean[] setDown;
+  int[] seen;
+  int[] picked;
+  int[] renamed;
+
+  RowGenerator(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive values.");
+    }
+    this.width = width;
+    this.height = height;
+    this.sets = new int[width];
+    this.parents = new int[width];
+    this.connections = new byte[width];
+    this.down = new boolean[width];
+    this.setDown = new boolean[width];
+    this.seen = new int[width];
+    this.picked = new int[width];
+    this.renamed = new int[width];
+  }
+
+  // writes the connections of a generated board to a file, two tiles a byte
+  // (low bits first), in row-major order
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      throw new IllegalArgumentException("Usage: RowGenerator file width height seed");
+    }
+    RowGenerator generator = new RowGenerator(Integer.parseInt(args[1]),
+        Integer.parseInt(args[2]));
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]));
+    try {
+      NibbleSink sink = new NibbleSink(out);
+      long start = System.nanoTime();
+      generator.generate(Long.parseLong(args[3]), sink);
+      sink.finish();
+      System.out.println(String.format("%d tiles in %.3f s", sink.tiles,
+          (System.nanoTime() - start) / 1e9));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // EFFECT: generates a board from the given seed, handing its rows to the
+  // given sink from top to bottom
+  void generate(long seed, RowSink sink) throws IOException {
+    SplittableRandom rand = new SplittableRandom(seed);
+    for (int col = 0; col < this.width; col += 1) {
+      this.sets[col] = col;
+      this.down[col] = false;
+    }
+    for (int row = 0; row < this.height; row += 1) {
+      boolean last = row == this.height - 1;
+      for (int col = 0; col < this.width; col += 1) {
+        this.parents[col] = col;
+        this.connections[col] = (byte) (this.down[col] ? PackedBoard.TOP : 0);
+      }
+      for (int col = 0; col + 1 < this.width; col += 1) {
+        int left = this.findRep(this.sets[col]);
+        int right = this.findRep(this.sets[col + 1]);
+        if (left != right && (last || rand.nextBoolean())) {
+          this.parents[right] = left;
+          this.connections[col] |= PackedBoard.RIGHT;
+          this.connections[col + 1] |= PackedBoard.LEFT;
+        }
+      }
+      if (!last) {
+        this.joinDown(rand);
+      }
+      sink.acceptRow(row, this.connections);
+    }
+  }
+
+  // EFFECT: picks the tiles of this row that join the row below, at least
+  // one from every set, and names the sets of the row below
+  void joinDown(SplittableRandom rand) {
+    for (int col = 0; col < this.width; col += 1) {
+      this.setDown[col] = false;
+      this.seen[col] = 0;
+      this.renamed[col] = -1;
+    }
+    for (int col = 0; col < this.width; col += 1) {
+      int rep = this.findRep(this.sets[col]);
+      this.sets[col] = rep;
+      this.down[col] = rand.nextBoolean();
+      this.setDown[rep] |= this.down[col];
+      this.seen[rep] += 1;
+      // every tile of the set is as likely as any other to end up picked:
+      if (rand.nextInt(this.seen[rep]) == 0) {
+        this.picked[rep] = col;
+      }
+    }
+    for (int col = 0; col < this.width; col += 1) {
+      int rep = this.sets[col];
+      if (!this.setDown[rep] && this.picked[rep] == col) {
+        this.down[col] = true;
+      }
+      if (this.down[col]) {
+        this.connections[col] |= PackedBoard.BOTTOM;
+        if (this.renamed[rep] < 0) {
+          this.renamed[rep] = col;
+        }
+        this.sets[col] = this.renamed[rep];
+      }
+      else {
+        // no tile joining the row below has this column, so it names a new set:
+        this.sets[col] = col;
+      }
+    }
+  }
+
+  // returns the representative of the set named by the given column
+  // EFFECT: compresses the path from it to its representative
+  int findRep(int set) {
+    int rep = set;
+    while (this.parents[rep] != rep) {
+      rep = this.parents[rep];
+    }
+    while (this.parents[set] != rep) {
+      int next = this.parents[set];
+      this.parents[set] = rep;
+      set = next;
+    }
+    return rep;
+  }
+}
+
+// represents where a row generator hands each row it generates
+interface RowSink {
+  // EFFECT: takes the connections of every tile of the given row, from left
+  // to right
+  // NOTE: the array is reused for the next row, so must be copied to be kept
+  void acceptRow(int row, byte[] connections) throws IOException;
+}
+
+// copies every row into a packed board of the same size
+class PackedBoardSink implements RowSink {
+  PackedBoard board;
+
+  PackedBoardSink(PackedBoard board) {
+    this.board = board;
+  }
+
+  public void acceptRow(int row, byte[] connections) {
+    for (int col = 0; col < connections.length; col += 1) {
+      this.board.setConnections(row * this.board.width + col, connections[col]);
+    }
+  }
+}
+
+// writes every row to a stream, two tiles a byte (low bits first), in the
+// same form as a level pack stores its boards' connections
+class NibbleSink implements RowSink {
+  OutputStream out;
+  // the tile waiting for a second to share its byte (-1 if none)
+  int pending;
+  long tiles;
+
+  NibbleSink(OutputStream out) {
+    this.out = out;
+    this.pending = -1;
+  }
+
+  public void acceptRow(int row, byte[] connections) throws IOException {
+    for (int col = 0; col < connections.length; col += 1) {
+      if (this.pending < 0) {
+        this.pending = connections[col];
+      }
+      else {
+        this.out.write(this.pending | (connections[col] << 4));
+        this.pending = -1;
+      }
+    }
+    this.tiles += connections.length;
+  }
+
+  // EFFECT: writes out the last tile, if it is still waiting for a second
+  void finish() throws IOException {
+    if (this.pending >= 0) {
+      this.out.write(this.pending);
+      this.pending = -1;
+    }
+  }
+}
+
+class ExamplesRowGenerator {
+  RowGenerator gen;
+
+  void init() {
+    this.gen = new RowGenerator(3, 2);
+  }
+
+  // returns the board generated from the given seed at the given size
+  PackedBoard generate(int width, int height, long seed) {
+    PackedBoard board = new PackedBoard(width, height);
+    try {
+      new RowGenerator(width, height).generate(seed, new PackedBoardSink(board));
+    }
+    catch (IOException e) {
+      return null;
+    }
+    return board;
+  }
+
+  void testConstructor(Tester t) {
+    this.init();
+    t.checkExpect(this.gen.sets.length, 3);
+    t.checkExpect(this.gen.picked.length, 3);
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "RowGenerator", 0, 5);
+    t.checkConstructorException(
+        new IllegalArgumentException("Width and height must be positive values."),
+        "RowGenerator", 5, -1);
+  }
+
+  void testGenerate(Tester t) {
+    boolean allTrees = true;
+    for (int seed = 0; seed < 50; seed += 1) {
+      allTrees = allTrees && this.generate(7, 5, seed).isSpanningTree();
+    }
+    t.checkExpect(allTrees, true);
+    t.checkExpect(this.generate(200, 150, 9).isSpanningTree(), true);
+    // a single row or column has only one tree:
+    t.checkExpect(this.generate(4, 1, 3).tiles, new byte[] { 4, 5, 5, 1 });
+    t.checkExpect(this.generate(1, 3, 3).tiles, new byte[] { 8, 10, 2 });
+    t.checkExpect(this.generate(1, 1, 3).tiles, new byte[] { 0 });
+    // the same seed always gives the same board, and others another:
+    t.checkExpect(this.generate(30, 30, 4), this.generate(30, 30, 4));
+    t.checkExpect(Arrays.equals(this.generate(30, 30, 4).tiles, this.generate(30, 30, 5).tiles),
+        false);
+    // and the generator can be reused:
+    PackedBoard first = new PackedBoard(6, 6);
+    PackedBoard again = new PackedBoard(6, 6);
+    RowGenerator gen = new RowGenerator(6, 6);
+    try {
+      gen.generate(8, new PackedBoardSink(first));
+      gen.generate(8, new PackedBoardSink(again));
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    t.checkExpect(again, first);
+  }
+
+  void testJoinDown(Tester t) {
+    this.init();
+    // BEFORE: three tiles, the first two joined
+    this.gen.sets = new int[] { 0, 1, 2 };
+    this.gen.parents = new int[] { 0, 0, 2 };
+    this.gen.connections = new byte[] { 4, 1, 0 };
+    // CHANGE
+    this.gen.joinDown(new SplittableRandom(1));
+    // AFTER: each set joins down at least once
+    boolean firstDown = this.gen.down[0] || this.gen.down[1];
+    t.checkExpect(firstDown, true);
+    t.checkExpect(this.gen.down[2], true);
+    t.checkExpect(this.gen.connections[2], (byte) 8);
+    // tiles joining down keep their set's name in the row below, and the
+    // others name new sets
+    for (int col = 0; col < 3; col += 1) {
+      t.checkExpect((this.gen.connections[col] & PackedBoard.BOTTOM) != 0, this.gen.down[col]);
+    }
+    t.checkExpect(this.gen.sets[2], 2);
+    if (this.gen.down[0] && this.gen.down[1]) {
+      t.checkExpect(this.gen.sets[1], 0);
+    }
+    else {
+      t.checkExpect(this.gen.sets[1], 1);
+    }
+  }
+
+  void testFindRep(Tester t) {
+    this.init();
+    this.gen.parents = new int[] { 0, 0, 1 };
+    t.checkExpect(this.gen.findRep(2), 0);
+    t.checkExpect(this.gen.parents, new int[] { 0, 0, 0 });
+    t.checkExpect(this.gen.findRep(1), 0);
+  }
+
+  void testNibbleSink(Tester t) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    NibbleSink sink = new NibbleSink(bytes);
+    try {
+      sink.acceptRow(0, new byte[] { 4, 13, 1 });
+      sink.acceptRow(1, new byte[] { 4, 7, 1 });
+      sink.acceptRow(2, new byte[] { 2 });
+      sink.finish();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    t.checkExpect(bytes.toByteArray(), new byte[] { (byte) 0xd4, 0x41, 0x17, 0x02 });
+    t.checkExpect(sink.tiles, 7L);
+  }
+
+  void testPackedBoardSink(Tester t) {
+    PackedBoard board = new PackedBoard(3, 2);
+    PackedBoardSink sink = new PackedBoardSink(board);
+    sink.acceptRow(1, new byte[] { 4, 7, 1 });
+    t.checkExpect(board.tiles, new byte[] { 0, 0, 0, 4, 7, 1 });
+  }
+}